@@ -16,9 +16,7 @@
 package com.hertzify.settings.fragments.lockscreen;
 
 import android.content.Context;
-import android.content.ContentResolver;
 import android.os.Bundle;
-import android.os.UserHandle;
 import android.provider.Settings;
 
 import androidx.preference.ListPreference;
@@ -31,6 +29,8 @@ import com.android.internal.logging.nano.MetricsProto;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 
+import com.hertzify.settings.preferences.SettingsBatch;
+
 public class PulseSettings extends SettingsPreferenceFragment {
 
     @Override
@@ -41,15 +41,12 @@ public class PulseSettings extends SettingsPreferenceFragment {
     }
 
     public static void reset(Context context) {
-        ContentResolver resolver = context.getContentResolver();
-        Settings.Secure.putIntForUser(resolver,
-                Settings.Secure.LOCKSCREEN_PULSE_ENABLED, 0, UserHandle.USER_CURRENT);
-        Settings.Secure.putIntForUser(resolver,
-                Settings.Secure.PULSE_BAR_COUNT, 32, UserHandle.USER_CURRENT);
-        Settings.Secure.putIntForUser(resolver,
-                Settings.Secure.PULSE_ROUNDED_BARS, 0, UserHandle.USER_CURRENT);
-        Settings.Secure.putStringForUser(resolver,
-                Settings.Secure.PULSE_COLOR, "lavalamp", UserHandle.USER_CURRENT);
+        new SettingsBatch(context)
+                .putSecureInt(Settings.Secure.LOCKSCREEN_PULSE_ENABLED, 0)
+                .putSecureInt(Settings.Secure.PULSE_BAR_COUNT, 32)
+                .putSecureInt(Settings.Secure.PULSE_ROUNDED_BARS, 0)
+                .putSecureString(Settings.Secure.PULSE_COLOR, "lavalamp")
+                .apply();
     }
 
     @Override
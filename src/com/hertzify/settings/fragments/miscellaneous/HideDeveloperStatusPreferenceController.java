@@ -18,34 +18,84 @@ package com.hertzify.settings.fragments.miscellaneous;
 
 import android.content.Context;
 import android.content.pm.UserInfo;
-import android.provider.Settings;
+import android.os.SystemClock;
 import android.os.UserManager;
+import android.util.Log;
+import android.util.SparseBooleanArray;
+import android.util.SparseLongArray;
+
+import androidx.preference.PreferenceScreen;
 
 import com.android.settings.core.BasePreferenceController;
+import com.android.settingslib.utils.ThreadUtils;
 
 import com.android.internal.util.hertzify.HideDeveloperStatusUtils;
 
+import com.hertzify.settings.preferences.PackageSnapshot;
+
 import java.util.List;
 
 public class HideDeveloperStatusPreferenceController extends BasePreferenceController {
 
+    private static final String TAG = "HideDeveloperStatus";
     private static final String PREF_KEY = "hide_developer_status_settings";
-    private static HideDeveloperStatusUtils hideDeveloperStatusUtils = new HideDeveloperStatusUtils();
 
-    private UserManager userManager;
-    private List<UserInfo> userInfos;
+    // Snapshot generation per user at the last setApps, it only needs to run again
+    // once a package of that user changed. Both guarded by sAppliedGenerations.
+    private static final SparseLongArray sAppliedGenerations = new SparseLongArray();
+    private static final SparseBooleanArray sRunning = new SparseBooleanArray();
 
     public HideDeveloperStatusPreferenceController(Context context) {
         super(context, PREF_KEY);
-        userManager = UserManager.get(context);
-        userInfos = userManager.getUsers();
-        for (UserInfo info: userInfos) {
-            hideDeveloperStatusUtils.setApps(context, info.id);
-        }
     }
 
     @Override
     public int getAvailabilityStatus() {
         return AVAILABLE;
     }
+
+    @Override
+    public void displayPreference(PreferenceScreen screen) {
+        super.displayPreference(screen);
+        // Controllers are also built for search indexing, only sync once actually shown
+        final Context context = mContext.getApplicationContext();
+        ThreadUtils.postOnBackgroundThread(() -> updateApps(context));
+    }
+
+    /**
+     * Queues setApps for every user whose packages changed since the last run. Users
+     * are processed in parallel on the background pool.
+     */
+    private static void updateApps(Context context) {
+        final PackageSnapshot snapshot = PackageSnapshot.get(context);
+        final List<UserInfo> userInfos = UserManager.get(context).getUsers();
+        for (UserInfo info : userInfos) {
+            final int userId = info.id;
+            final long generation = snapshot.getGeneration(userId);
+            synchronized (sAppliedGenerations) {
+                if (sRunning.get(userId) || (sAppliedGenerations.indexOfKey(userId) >= 0
+                        && sAppliedGenerations.get(userId) == generation)) {
+                    continue;
+                }
+                sRunning.put(userId, true);
+            }
+            ThreadUtils.postOnBackgroundThread(() -> {
+                final long start = SystemClock.elapsedRealtime();
+                boolean done = false;
+                try {
+                    new HideDeveloperStatusUtils().setApps(context, userId);
+                    done = true;
+                } finally {
+                    synchronized (sAppliedGenerations) {
+                        sRunning.delete(userId);
+                        if (done) {
+                            sAppliedGenerations.put(userId, generation);
+                        }
+                    }
+                    Log.d(TAG, "setApps for user " + userId + " took "
+                            + (SystemClock.elapsedRealtime() - start) + "ms");
+                }
+            });
+        }
+    }
 }
@@ -16,17 +16,17 @@
 
 package com.hertzify.settings.fragments.notifications;
 
-import android.content.ContentResolver;
 import android.content.Context;
 import android.graphics.Color;
 import android.os.Bundle;
-import android.os.UserHandle;
 import android.provider.Settings;
 
 import com.android.internal.logging.nano.MetricsProto;
 import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 
+import com.hertzify.settings.preferences.SettingsBatch;
+
 public class EdgeLightSettings extends SettingsPreferenceFragment {
 
     @Override
@@ -36,17 +36,13 @@ public class EdgeLightSettings extends SettingsPreferenceFragment {
     }
 
     public static void reset(Context context) {
-        ContentResolver resolver = context.getContentResolver();
-        Settings.System.putIntForUser(resolver,
-                Settings.System.EDGE_LIGHT_ENABLED, 0, UserHandle.USER_CURRENT);
-        Settings.System.putStringForUser(resolver,
-                Settings.System.EDGE_LIGHT_COLOR_MODE, "accent", UserHandle.USER_CURRENT);
-        Settings.System.putIntForUser(resolver,
-                Settings.System.EDGE_LIGHT_CUSTOM_COLOR, Color.WHITE, UserHandle.USER_CURRENT);
-        Settings.System.putIntForUser(resolver,
-                Settings.System.EDGE_LIGHT_PULSE_COUNT, 1, UserHandle.USER_CURRENT);
-        Settings.System.putIntForUser(resolver,
-                Settings.System.EDGE_LIGHT_STROKE_WIDTH, 8, UserHandle.USER_CURRENT);
+        new SettingsBatch(context)
+                .putSystemInt(Settings.System.EDGE_LIGHT_ENABLED, 0)
+                .putSystemString(Settings.System.EDGE_LIGHT_COLOR_MODE, "accent")
+                .putSystemInt(Settings.System.EDGE_LIGHT_CUSTOM_COLOR, Color.WHITE)
+                .putSystemInt(Settings.System.EDGE_LIGHT_PULSE_COUNT, 1)
+                .putSystemInt(Settings.System.EDGE_LIGHT_STROKE_WIDTH, 8)
+                .apply();
     }
 
     @Override
@@ -19,11 +19,8 @@ package com.hertzify.settings.fragments.themes;
 import static com.android.internal.util.hertzify.ThemeUtils.FONT_KEY;
 
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.content.res.Resources;
 import android.graphics.Typeface;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -92,6 +89,17 @@ public class FontsPicker extends SettingsPreferenceFragment {
         private final RecyclerView mRecyclerView;
         private final String mAppliedPkg;
         private String mSelectedPkg;
+        private final PreviewLoader<FontPreview> mPreviews;
+
+        private static class FontPreview {
+            final String label;
+            final Typeface typeface;
+
+            FontPreview(String label, Typeface typeface) {
+                this.label = label;
+                this.typeface = typeface;
+            }
+        }
 
         public Adapter(Context context, List<String> pkgs, ThemeUtils themeUtils, String category, RecyclerView recyclerView) {
             this.contextRef = new WeakReference<>(context);
@@ -107,6 +115,18 @@ public class FontsPicker extends SettingsPreferenceFragment {
                     .orElse("android");
 
             mSelectedPkg = mAppliedPkg;
+
+            final OverlayResourceCache cache = OverlayResourceCache.get(context);
+            mPreviews = new PreviewLoader<>(
+                    pkg -> new FontPreview(cache.getLabel(pkg),
+                            cache.getTypeface(pkg, "config_bodyFontFamily")),
+                    (pkg, preview) -> {
+                        int index = mPkgs.indexOf(pkg);
+                        if (index >= 0) {
+                            notifyItemChanged(index, PreviewLoader.PAYLOAD_PREVIEW);
+                        }
+                    });
+            mPreviews.preload(mPkgs, 0, PreviewLoader.PRELOAD_COUNT);
         }
 
         @NonNull
@@ -122,14 +142,15 @@ public class FontsPicker extends SettingsPreferenceFragment {
             if (context == null) return;
 
             String pkg = mPkgs.get(position);
-            String label = getLabel(context, pkg);
-            Typeface typeface = getTypeface(context, pkg);
+            FontPreview preview = mPreviews.get(pkg);
+            mPreviews.preload(mPkgs, position + 1, PreviewLoader.PRELOAD_COUNT);
+            // Rows show the default font until their preview is loaded
+            String label = preview != null ? preview.label : "";
+            Typeface typeface = preview != null ? preview.typeface : null;
 
             holder.title.setText("android".equals(pkg) ? "Default" : label);
             holder.title.setTextSize(20);
-            if (typeface != null) {
-                holder.title.setTypeface(typeface);
-            }
+            holder.title.setTypeface(typeface != null ? typeface : Typeface.DEFAULT);
             holder.name.setVisibility(View.GONE);
             holder.itemView.setActivated(pkg.equals(mSelectedPkg));
 
@@ -149,6 +170,12 @@ public class FontsPicker extends SettingsPreferenceFragment {
             return mPkgs.size();
         }
 
+        @Override
+        public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+            super.onDetachedFromRecyclerView(recyclerView);
+            mPreviews.release();
+        }
+
         private void updateActivatedStatus(String pkg) {
             int index = mPkgs.indexOf(pkg);
             if (index >= 0) {
@@ -165,30 +192,5 @@ public class FontsPicker extends SettingsPreferenceFragment {
                 name = itemView.findViewById(R.id.option_label);
             }
         }
-
-        private Typeface getTypeface(Context context, String pkg) {
-            try {
-                PackageManager pm = context.getPackageManager();
-                Resources res = pkg.equals("android") ? Resources.getSystem()
-                        : pm.getResourcesForApplication(pkg);
-                int id = res.getIdentifier("config_bodyFontFamily", "string", pkg);
-                if (id != 0) {
-                    return Typeface.create(res.getString(id), Typeface.NORMAL);
-                }
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, "Typeface load failed for pkg: " + pkg, e);
-            }
-            return null;
-        }
-
-        private String getLabel(Context context, String pkg) {
-            PackageManager pm = context.getPackageManager();
-            try {
-                return pm.getApplicationInfo(pkg, 0).loadLabel(pm).toString();
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, "Label load failed for pkg: " + pkg, e);
-            }
-            return pkg;
-        }
     }
 }
\ No newline at end of file
@@ -19,12 +19,9 @@ package com.hertzify.settings.fragments.themes;
 import static com.android.internal.util.hertzify.ThemeUtils.ICON_SHAPE_KEY;
 
 import android.content.Context;
-import android.content.pm.PackageManager;
 import android.content.res.ColorStateList;
-import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -96,6 +93,17 @@ public class IconShapes extends SettingsPreferenceFragment {
         private final RecyclerView mRecyclerView;
         private final String mAppliedPkg;
         private String mSelectedPkg;
+        private final PreviewLoader<ShapePreview> mPreviews;
+
+        private static class ShapePreview {
+            final String label;
+            final Drawable.ConstantState shape;
+
+            ShapePreview(String label, Drawable.ConstantState shape) {
+                this.label = label;
+                this.shape = shape;
+            }
+        }
 
         public Adapter(Context context, List<String> pkgs, ThemeUtils themeUtils, String category, RecyclerView recyclerView) {
             this.contextRef = new WeakReference<>(context);
@@ -111,6 +119,21 @@ public class IconShapes extends SettingsPreferenceFragment {
                     .orElse("android");
 
             mSelectedPkg = mAppliedPkg;
+
+            final OverlayResourceCache cache = OverlayResourceCache.get(context);
+            mPreviews = new PreviewLoader<>(
+                    pkg -> {
+                        Drawable shape = mThemeUtils.createShapeDrawable(pkg);
+                        return new ShapePreview(cache.getLabel(pkg),
+                                shape != null ? shape.getConstantState() : null);
+                    },
+                    (pkg, preview) -> {
+                        int index = mPkgs.indexOf(pkg);
+                        if (index >= 0) {
+                            notifyItemChanged(index, PreviewLoader.PAYLOAD_PREVIEW);
+                        }
+                    });
+            mPreviews.preload(mPkgs, 0, PreviewLoader.PRELOAD_COUNT);
         }
 
         @NonNull
@@ -126,12 +149,13 @@ public class IconShapes extends SettingsPreferenceFragment {
             if (context == null) return;
 
             String pkg = mPkgs.get(position);
-            Drawable drawable = mThemeUtils.createShapeDrawable(pkg);
-            if (drawable != null) {
-                holder.image.setBackground(drawable);
-            }
+            ShapePreview preview = mPreviews.get(pkg);
+            mPreviews.preload(mPkgs, position + 1, PreviewLoader.PRELOAD_COUNT);
+            // Rows show no shape until their preview is loaded
+            holder.image.setBackground(preview != null && preview.shape != null
+                    ? preview.shape.newDrawable() : null);
 
-            String label = getLabel(context, pkg);
+            String label = preview != null ? preview.label : "";
             holder.name.setText("android".equals(pkg) ? "Default" : label);
 
             boolean isDefault = "android".equals(mAppliedPkg) && "android".equals(pkg);
@@ -156,6 +180,12 @@ public class IconShapes extends SettingsPreferenceFragment {
             return mPkgs.size();
         }
 
+        @Override
+        public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+            super.onDetachedFromRecyclerView(recyclerView);
+            mPreviews.release();
+        }
+
         private void updateActivatedStatus() {
             notifyDataSetChanged();
         }
@@ -169,15 +199,5 @@ public class IconShapes extends SettingsPreferenceFragment {
                 image = itemView.findViewById(R.id.option_thumbnail);
             }
         }
-
-        private String getLabel(Context context, String pkg) {
-            PackageManager pm = context.getPackageManager();
-            try {
-                return pm.getApplicationInfo(pkg, 0).loadLabel(pm).toString();
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, "Label load failed for pkg: " + pkg, e);
-            }
-            return pkg;
-        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,198 @@
+/*
+ * Copyright (C) 2026 HertzifyOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hertzify.settings.fragments.themes;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageManager;
+import android.content.res.Resources;
+import android.graphics.Typeface;
+import android.graphics.drawable.Drawable;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.LruCache;
+
+import java.util.Map;
+
+/**
+ * Process-wide cache of what the theme pickers read out of overlay packages: the
+ * overlay Resources, resolved resource ids, drawables, typefaces and labels. Rows
+ * rebinding on scroll or selection changes then cost no PackageManager or
+ * resource lookups.
+ *
+ * Entries are kept per overlay package in an LRU and dropped when overlays or
+ * packages change. Drawables are cached as their constant state, so each caller
+ * still gets its own instance.
+ */
+public final class OverlayResourceCache {
+
+    private static final String TAG = "OverlayResourceCache";
+
+    private static final int MAX_PACKAGES = 24;
+
+    private static OverlayResourceCache sInstance;
+
+    private final Context mContext;
+    private final PackageManager mPm;
+
+    private final LruCache<String, Entry> mEntries = new LruCache<>(MAX_PACKAGES);
+
+    /** Everything loaded from one overlay package, guarded by itself. */
+    private static final class Entry {
+        final Resources res;
+        final Map<String, Integer> ids = new ArrayMap<>();
+        final Map<String, Drawable.ConstantState> drawables = new ArrayMap<>();
+        final Map<String, Typeface> typefaces = new ArrayMap<>();
+        String label;
+
+        Entry(Resources res) {
+            this.res = res;
+        }
+    }
+
+    private OverlayResourceCache(Context context) {
+        mContext = context;
+        mPm = context.getPackageManager();
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_OVERLAY_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mReceiver, filter);
+    }
+
+    public synchronized static OverlayResourceCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new OverlayResourceCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns a new instance of drawable {@code name} from {@code pkg}, themed with
+     * {@code theme}, or null if the overlay does not have it.
+     */
+    public Drawable getDrawable(String pkg, String name, Resources.Theme theme) {
+        final Entry entry = getEntry(pkg);
+        synchronized (entry) {
+            Drawable.ConstantState state = entry.drawables.get(name);
+            if (state == null) {
+                if (entry.drawables.containsKey(name)) {
+                    // Known to be missing
+                    return null;
+                }
+                final int id = getIdentifier(entry, pkg, name, "drawable");
+                if (id == 0) {
+                    entry.drawables.put(name, null);
+                    return null;
+                }
+                final Drawable drawable = entry.res.getDrawable(id, theme);
+                state = drawable != null ? drawable.getConstantState() : null;
+                if (state == null) {
+                    // Cannot be shared, loaded again from the cached id every time
+                    return drawable;
+                }
+                entry.drawables.put(name, state);
+            }
+            return state.newDrawable(entry.res, theme);
+        }
+    }
+
+    /**
+     * Returns the typeface named by string resource {@code name} of {@code pkg}, or
+     * null if the overlay does not define it.
+     */
+    public Typeface getTypeface(String pkg, String name) {
+        final Entry entry = getEntry(pkg);
+        synchronized (entry) {
+            if (!entry.typefaces.containsKey(name)) {
+                final int id = getIdentifier(entry, pkg, name, "string");
+                entry.typefaces.put(name, id != 0
+                        ? Typeface.create(entry.res.getString(id), Typeface.NORMAL) : null);
+            }
+            return entry.typefaces.get(name);
+        }
+    }
+
+    public String getLabel(String pkg) {
+        final Entry entry = getEntry(pkg);
+        synchronized (entry) {
+            if (entry.label == null) {
+                try {
+                    entry.label = mPm.getApplicationInfo(pkg, 0).loadLabel(mPm).toString();
+                } catch (PackageManager.NameNotFoundException e) {
+                    Log.e(TAG, "Label load failed for pkg: " + pkg, e);
+                    entry.label = pkg;
+                }
+            }
+            return entry.label;
+        }
+    }
+
+    public void invalidate() {
+        mEntries.evictAll();
+    }
+
+    private Entry getEntry(String pkg) {
+        synchronized (mEntries) {
+            Entry entry = mEntries.get(pkg);
+            if (entry == null) {
+                entry = new Entry(loadResources(pkg));
+                mEntries.put(pkg, entry);
+            }
+            return entry;
+        }
+    }
+
+    private Resources loadResources(String pkg) {
+        if ("android".equals(pkg)) {
+            return Resources.getSystem();
+        }
+        try {
+            return mPm.getResourcesForApplication(pkg);
+        } catch (PackageManager.NameNotFoundException e) {
+            Log.e(TAG, "Resources load failed for pkg: " + pkg, e);
+            return null;
+        }
+    }
+
+    private static int getIdentifier(Entry entry, String pkg, String name, String type) {
+        if (entry.res == null) {
+            return 0;
+        }
+        final String key = type + "/" + name;
+        Integer id = entry.ids.get(key);
+        if (id == null) {
+            id = entry.res.getIdentifier(name, type, pkg);
+            entry.ids.put(key, id);
+        }
+        return id;
+    }
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            // Overlays targeting android change what the system resources resolve
+            // to, so any change drops everything
+            invalidate();
+        }
+    };
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2026 HertzifyOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.hertzify.settings.fragments.themes;
+
+import android.content.Context;
+import android.content.res.Resources;
+import android.graphics.drawable.Drawable;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads the previews of a theme picker grid off the UI thread.
+ *
+ * Rows ask for their preview with {@link #get}; until it is ready they show a
+ * placeholder and the callback tells the adapter to rebind. Requests are served
+ * newest first by at most {@link #MAX_WORKERS} jobs on the background pool, so
+ * rows flung past are only loaded once the visible ones are done. Rows asked for
+ * with {@link #get} always go before rows queued by {@link #preload}.
+ */
+public final class PreviewLoader<T> {
+
+    private static final String TAG = "PreviewLoader";
+
+    /** Number of rows to warm ahead of the current position, about a page. */
+    public static final int PRELOAD_COUNT = 18;
+
+    /** Payload for notifyItemChanged, so the row rebinds without a change animation. */
+    public static final Object PAYLOAD_PREVIEW = new Object();
+
+    private static final int MAX_WORKERS = 2;
+
+    public interface Source<T> {
+        /** Called on a background thread. */
+        public T load(String pkg);
+    }
+
+    public interface Callback<T> {
+        /** Called on the main thread. */
+        public void onPreviewLoaded(String pkg, T preview);
+    }
+
+    private final Source<T> mSource;
+    private Callback<T> mCallback;
+
+    // All guarded by mLoaded
+    private final Map<String, T> mLoaded = new ArrayMap<>();
+    // Packages bound rows asked for, then packages warmed ahead
+    private final ArrayDeque<String> mQueue = new ArrayDeque<>();
+    private final ArrayDeque<String> mPreloadQueue = new ArrayDeque<>();
+    // Packages taken off a queue whose result was not delivered yet
+    private final Set<String> mLoading = new ArraySet<>();
+    private int mWorkers;
+
+    public PreviewLoader(Source<T> source, Callback<T> callback) {
+        mSource = source;
+        mCallback = callback;
+    }
+
+    /**
+     * Returns the preview of {@code pkg} if it is loaded, otherwise queues it and
+     * returns null.
+     */
+    public T get(String pkg) {
+        synchronized (mLoaded) {
+            final T preview = mLoaded.get(pkg);
+            if (preview == null) {
+                enqueue(pkg, mQueue);
+            }
+            return preview;
+        }
+    }
+
+    /** Queues {@code count} packages starting at {@code from} that are not loaded yet. */
+    public void preload(List<String> pkgs, int from, int count) {
+        final int end = Math.min(pkgs.size(), from + count);
+        synchronized (mLoaded) {
+            // Queued last to first, so the nearest row is served first
+            for (int i = end - 1; i >= from; i--) {
+                final String pkg = pkgs.get(i);
+                if (!mLoaded.containsKey(pkg) && !mQueue.contains(pkg)) {
+                    enqueue(pkg, mPreloadQueue);
+                }
+            }
+        }
+    }
+
+    /** Stops delivering results, previews still loading are dropped. */
+    public void release() {
+        synchronized (mLoaded) {
+            mCallback = null;
+            mQueue.clear();
+            mPreloadQueue.clear();
+        }
+    }
+
+    private void enqueue(String pkg, ArrayDeque<String> queue) {
+        if (mCallback == null || mLoading.contains(pkg)) {
+            return;
+        }
+        // Move it to the front, out of the preload queue if a row asks for it now
+        mQueue.remove(pkg);
+        mPreloadQueue.remove(pkg);
+        queue.addLast(pkg);
+        if (mWorkers < MAX_WORKERS) {
+            mWorkers++;
+            ThreadUtils.postOnBackgroundThread(this::drain);
+        }
+    }
+
+    private void drain() {
+        while (true) {
+            final String pkg;
+            synchronized (mLoaded) {
+                pkg = !mQueue.isEmpty() ? mQueue.pollLast() : mPreloadQueue.pollLast();
+                if (pkg == null) {
+                    mWorkers--;
+                    return;
+                }
+                mLoading.add(pkg);
+            }
+            T loaded = null;
+            try {
+                loaded = mSource.load(pkg);
+            } catch (RuntimeException e) {
+                // A broken overlay must not take the worker down with it
+                Log.e(TAG, "Preview load failed for pkg: " + pkg, e);
+            }
+            final T preview = loaded;
+            ThreadUtils.postOnMainThread(() -> {
+                final Callback<T> callback;
+                synchronized (mLoaded) {
+                    mLoading.remove(pkg);
+                    callback = mCallback;
+                    if (callback == null || preview == null) {
+                        return;
+                    }
+                    mLoaded.put(pkg, preview);
+                }
+                callback.onPreviewLoaded(pkg, preview);
+            });
+        }
+    }
+
+    /** Label and icons of an icon pack overlay. */
+    public static final class IconPreview {
+        public final String label;
+        private final Drawable.ConstantState[] mIcons;
+
+        IconPreview(String label, Drawable.ConstantState[] icons) {
+            this.label = label;
+            mIcons = icons;
+        }
+
+        /** Returns a new instance of icon {@code index}, or null if the overlay lacks it. */
+        public Drawable newIcon(int index) {
+            return mIcons[index] != null ? mIcons[index].newDrawable() : null;
+        }
+    }
+
+    /** Returns a source loading the label and drawables {@code names} of each overlay. */
+    public static Source<IconPreview> iconSource(Context context, String... names) {
+        final OverlayResourceCache cache = OverlayResourceCache.get(context);
+        final Resources.Theme theme = context.getTheme();
+        return pkg -> {
+            final Drawable.ConstantState[] icons = new Drawable.ConstantState[names.length];
+            for (int i = 0; i < names.length; i++) {
+                final Drawable icon = cache.getDrawable(pkg, names[i], theme);
+                icons[i] = icon != null ? icon.getConstantState() : null;
+            }
+            return new IconPreview(cache.getLabel(pkg), icons);
+        };
+    }
+}
@@ -16,11 +16,21 @@
 
 package com.hertzify.settings.fragments.themes;
 
+import static android.os.UserHandle.USER_CURRENT;
+import static android.os.UserHandle.USER_SYSTEM;
+
+import android.content.ContentResolver;
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.content.res.Resources;
-import android.graphics.drawable.Drawable;
+import android.content.om.IOverlayManager;
+import android.content.om.OverlayInfo;
+import android.content.om.OverlayManagerTransaction;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.provider.Settings;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -38,6 +48,9 @@ import com.android.settings.R;
 import com.android.settings.SettingsPreferenceFragment;
 import com.android.internal.util.hertzify.ThemeUtils;
 
+import org.json.JSONException;
+import org.json.JSONObject;
+
 import java.lang.ref.WeakReference;
 import java.util.HashMap;
 import java.util.List;
@@ -94,6 +107,8 @@ public class StatusbarIcons extends SettingsPreferenceFragment {
     }
 
     public static class Adapter extends RecyclerView.Adapter<Adapter.CustomViewHolder> {
+        private static Handler sApplyHandler;
+
         private final WeakReference<Context> contextRef;
         private final List<String> mPkgs;
         private final ThemeUtils mThemeUtils;
@@ -102,6 +117,7 @@ public class StatusbarIcons extends SettingsPreferenceFragment {
         private final RecyclerView mRecyclerView;
         private final String mAppliedPkg;
         private String mSelectedPkg;
+        private final PreviewLoader<PreviewLoader.IconPreview> mPreviews;
 
         public Adapter(Context context, List<String> pkgs, ThemeUtils themeUtils, String category,
                        Map<String, String> overlayMap, RecyclerView recyclerView) {
@@ -118,6 +134,19 @@ public class StatusbarIcons extends SettingsPreferenceFragment {
                     .findFirst()
                     .orElse("android");
             mSelectedPkg = mAppliedPkg;
+
+            mPreviews = new PreviewLoader<>(PreviewLoader.iconSource(context,
+                    "ic_wifi_signal_4",
+                    "ic_signal_cellular_4_4_bar",
+                    "ic_qs_airplane",
+                    "ic_qs_flashlight"),
+                    (pkg, preview) -> {
+                        int index = mPkgs.indexOf(pkg);
+                        if (index >= 0) {
+                            notifyItemChanged(index, PreviewLoader.PAYLOAD_PREVIEW);
+                        }
+                    });
+            mPreviews.preload(mPkgs, 0, PreviewLoader.PRELOAD_COUNT);
         }
 
         @NonNull
@@ -133,12 +162,15 @@ public class StatusbarIcons extends SettingsPreferenceFragment {
             if (context == null) return;
 
             String pkg = mPkgs.get(position);
-            holder.image1.setBackgroundDrawable(getDrawable(context, pkg, "ic_wifi_signal_4"));
-            holder.image2.setBackgroundDrawable(getDrawable(context, pkg, "ic_signal_cellular_4_4_bar"));
-            holder.image3.setBackgroundDrawable(getDrawable(context, pkg, "ic_qs_airplane"));
-            holder.image4.setBackgroundDrawable(getDrawable(context, pkg, "ic_qs_flashlight"));
+            PreviewLoader.IconPreview preview = mPreviews.get(pkg);
+            mPreviews.preload(mPkgs, position + 1, PreviewLoader.PRELOAD_COUNT);
+            // Rows show empty icons until their preview is loaded
+            holder.image1.setBackgroundDrawable(preview != null ? preview.newIcon(0) : null);
+            holder.image2.setBackgroundDrawable(preview != null ? preview.newIcon(1) : null);
+            holder.image3.setBackgroundDrawable(preview != null ? preview.newIcon(2) : null);
+            holder.image4.setBackgroundDrawable(preview != null ? preview.newIcon(3) : null);
 
-            String label = getLabel(context, pkg);
+            String label = preview != null ? preview.label : "";
             holder.name.setText("android".equals(pkg) ? "Default" : label);
             holder.itemView.setActivated(pkg.equals(mSelectedPkg));
 
@@ -153,22 +185,108 @@ public class StatusbarIcons extends SettingsPreferenceFragment {
             });
         }
 
+        /**
+         * Switches the main category and every target in overlayMap to the selected
+         * pack in a single overlay transaction, so each target reloads its resources
+         * once, and records the selection in THEME_CUSTOMIZATION_OVERLAY_PACKAGES the
+         * way ThemeUtils does. Targets the pack has no overlay for are left as they
+         * are, and the default disables the pack overlays of every target. Runs on a
+         * background thread, transactions are applied in click order.
+         */
         private void applyOverlays(String selectedPkg) {
-            mThemeUtils.setOverlayEnabled(mCategory, selectedPkg, "android");
-            String pattern = "android".equals(selectedPkg) ? "" : selectedPkg.split("\\.")[4];
-            for (Map.Entry<String, String> entry : overlayMap.entrySet()) {
-                String target = entry.getKey();
-                String category = entry.getValue();
-                if (pattern.isEmpty()) {
-                    mThemeUtils.setOverlayEnabled(category, "android", "android");
-                } else {
-                    for (String pkg : mThemeUtils.getOverlayPackagesForCategory(category, target)) {
-                        if (pkg.contains(pattern)) {
-                            mThemeUtils.setOverlayEnabled(category, pkg, target);
+            Context context = contextRef.get();
+            if (context == null) return;
+            ContentResolver resolver = context.getApplicationContext().getContentResolver();
+            getApplyHandler().post(() -> {
+                IOverlayManager om = IOverlayManager.Stub.asInterface(
+                        ServiceManager.getService(Context.OVERLAY_SERVICE));
+                if (om == null) return;
+                String pattern = "android".equals(selectedPkg) ? "" : selectedPkg.split("\\.")[4];
+                // Category to the pack overlay enabled for it, null if disabled
+                Map<String, String> selection = new ArrayMap<>();
+                selection.put(mCategory, "android".equals(selectedPkg) ? null : selectedPkg);
+                OverlayManagerTransaction.Builder transaction = new OverlayManagerTransaction.Builder();
+                try {
+                    boolean changed = addExclusive(om, transaction, mCategory, "android",
+                            selection.get(mCategory));
+                    for (Map.Entry<String, String> entry : overlayMap.entrySet()) {
+                        String target = entry.getKey();
+                        String category = entry.getValue();
+                        String pkg = null;
+                        if (!pattern.isEmpty()) {
+                            for (String candidate : mThemeUtils.getOverlayPackagesForCategory(category, target)) {
+                                if (candidate.contains(pattern)) {
+                                    pkg = candidate;
+                                }
+                            }
+                            if (pkg == null) continue;
                         }
+                        selection.put(category, pkg);
+                        changed |= addExclusive(om, transaction, category, target, pkg);
                     }
+                    if (changed) {
+                        om.commit(transaction.build());
+                    }
+                } catch (SecurityException | IllegalStateException | RemoteException e) {
+                    Log.e(TAG, "Failed applying icon pack " + selectedPkg, e);
+                    return;
+                }
+                writeSettings(resolver, selection);
+            });
+        }
+
+        /**
+         * Adds the changes enabling {@code pkg} and disabling every other overlay of
+         * {@code category} for {@code target}. A null pkg disables them all. Returns
+         * whether anything had to change.
+         */
+        private static boolean addExclusive(IOverlayManager om,
+                OverlayManagerTransaction.Builder transaction, String category, String target,
+                String pkg) throws RemoteException {
+            boolean changed = false;
+            for (OverlayInfo info : om.getOverlayInfosForTarget(target, USER_SYSTEM)) {
+                if (!category.equals(info.getCategory())) continue;
+                boolean enable = info.getPackageName().equals(pkg);
+                if (info.isEnabled() != enable) {
+                    transaction.setEnabled(info.getOverlayIdentifier(), enable, USER_SYSTEM);
+                    changed = true;
                 }
             }
+            return changed;
+        }
+
+        /**
+         * Records {@code selection} in THEME_CUSTOMIZATION_OVERLAY_PACKAGES with a single
+         * write, so the theme overlay controller reapplies the same packs later. A null
+         * package removes its category, like ThemeUtils does for disabled overlays.
+         */
+        private static void writeSettings(ContentResolver resolver, Map<String, String> selection) {
+            String json = Settings.Secure.getStringForUser(resolver,
+                    Settings.Secure.THEME_CUSTOMIZATION_OVERLAY_PACKAGES, USER_CURRENT);
+            try {
+                JSONObject object = json != null ? new JSONObject(json) : new JSONObject();
+                for (Map.Entry<String, String> entry : selection.entrySet()) {
+                    if (entry.getValue() == null) {
+                        object.remove(entry.getKey());
+                    } else {
+                        object.put(entry.getKey(), entry.getValue());
+                    }
+                }
+                Settings.Secure.putStringForUser(resolver,
+                        Settings.Secure.THEME_CUSTOMIZATION_OVERLAY_PACKAGES,
+                        object.toString(), USER_CURRENT);
+            } catch (JSONException e) {
+                Log.e(TAG, "Failed to parse THEME_CUSTOMIZATION_OVERLAY_PACKAGES.", e);
+            }
+        }
+
+        private static synchronized Handler getApplyHandler() {
+            if (sApplyHandler == null) {
+                HandlerThread thread = new HandlerThread(TAG);
+                thread.start();
+                sApplyHandler = new Handler(thread.getLooper());
+            }
+            return sApplyHandler;
         }
 
         @Override
@@ -176,6 +294,12 @@ public class StatusbarIcons extends SettingsPreferenceFragment {
             return mPkgs.size();
         }
 
+        @Override
+        public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+            super.onDetachedFromRecyclerView(recyclerView);
+            mPreviews.release();
+        }
+
         private void updateActivatedStatus(String pkg) {
             int index = mPkgs.indexOf(pkg);
             if (index >= 0) {
@@ -196,29 +320,5 @@ public class StatusbarIcons extends SettingsPreferenceFragment {
                 image4 = itemView.findViewById(R.id.image4);
             }
         }
-
-        private Drawable getDrawable(Context context, String pkg, String drawableName) {
-            try {
-                PackageManager pm = context.getPackageManager();
-                Resources res = pkg.equals("android") ? Resources.getSystem() : pm.getResourcesForApplication(pkg);
-                int resId = res.getIdentifier(drawableName, "drawable", pkg);
-                if (resId != 0) {
-                    return res.getDrawable(resId, context.getTheme());
-                }
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, "Drawable load failed for pkg: " + pkg + ", name: " + drawableName, e);
-            }
-            return null;
-        }
-
-        private String getLabel(Context context, String pkg) {
-            PackageManager pm = context.getPackageManager();
-            try {
-                return pm.getApplicationInfo(pkg, 0).loadLabel(pm).toString();
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, "Label load failed for pkg: " + pkg, e);
-            }
-            return pkg;
-        }
     }
 }
\ No newline at end of file
@@ -17,11 +17,7 @@
 package com.hertzify.settings.fragments.themes;
 
 import android.content.Context;
-import android.content.pm.PackageManager;
-import android.content.res.Resources;
-import android.graphics.drawable.Drawable;
 import android.os.Bundle;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -91,6 +87,7 @@ public class WifiIcons extends SettingsPreferenceFragment {
         private final RecyclerView mRecyclerView;
         private final String mAppliedPkg;
         private String mSelectedPkg;
+        private final PreviewLoader<PreviewLoader.IconPreview> mPreviews;
 
         public Adapter(Context context, List<String> pkgs, ThemeUtils themeUtils, String category, RecyclerView recyclerView) {
             this.contextRef = new WeakReference<>(context);
@@ -105,6 +102,19 @@ public class WifiIcons extends SettingsPreferenceFragment {
                     .findFirst()
                     .orElse("android");
             mSelectedPkg = mAppliedPkg;
+
+            mPreviews = new PreviewLoader<>(PreviewLoader.iconSource(context,
+                    "ic_wifi_signal_0",
+                    "ic_wifi_signal_2",
+                    "ic_wifi_signal_3",
+                    "ic_wifi_signal_4"),
+                    (pkg, preview) -> {
+                        int index = mPkgs.indexOf(pkg);
+                        if (index >= 0) {
+                            notifyItemChanged(index, PreviewLoader.PAYLOAD_PREVIEW);
+                        }
+                    });
+            mPreviews.preload(mPkgs, 0, PreviewLoader.PRELOAD_COUNT);
         }
 
         @NonNull
@@ -120,13 +130,15 @@ public class WifiIcons extends SettingsPreferenceFragment {
             if (context == null) return;
 
             String pkg = mPkgs.get(position);
-
-            holder.image1.setBackgroundDrawable(getDrawable(context, pkg, "ic_wifi_signal_0"));
-            holder.image2.setBackgroundDrawable(getDrawable(context, pkg, "ic_wifi_signal_2"));
-            holder.image3.setBackgroundDrawable(getDrawable(context, pkg, "ic_wifi_signal_3"));
-            holder.image4.setBackgroundDrawable(getDrawable(context, pkg, "ic_wifi_signal_4"));
-
-            String label = getLabel(context, pkg);
+            PreviewLoader.IconPreview preview = mPreviews.get(pkg);
+            mPreviews.preload(mPkgs, position + 1, PreviewLoader.PRELOAD_COUNT);
+            // Rows show empty icons until their preview is loaded
+            holder.image1.setBackgroundDrawable(preview != null ? preview.newIcon(0) : null);
+            holder.image2.setBackgroundDrawable(preview != null ? preview.newIcon(1) : null);
+            holder.image3.setBackgroundDrawable(preview != null ? preview.newIcon(2) : null);
+            holder.image4.setBackgroundDrawable(preview != null ? preview.newIcon(3) : null);
+
+            String label = preview != null ? preview.label : "";
             holder.name.setText("android".equals(pkg) ? "Default" : label);
             holder.itemView.setActivated(pkg.equals(mSelectedPkg));
 
@@ -146,6 +158,12 @@ public class WifiIcons extends SettingsPreferenceFragment {
             return mPkgs.size();
         }
 
+        @Override
+        public void onDetachedFromRecyclerView(@NonNull RecyclerView recyclerView) {
+            super.onDetachedFromRecyclerView(recyclerView);
+            mPreviews.release();
+        }
+
         private void updateActivatedStatus(String pkg) {
             int index = mPkgs.indexOf(pkg);
             if (index >= 0) {
@@ -166,29 +184,5 @@ public class WifiIcons extends SettingsPreferenceFragment {
                 image4 = itemView.findViewById(R.id.image4);
             }
         }
-
-        private Drawable getDrawable(Context context, String pkg, String drawableName) {
-            try {
-                PackageManager pm = context.getPackageManager();
-                Resources res = pkg.equals("android") ? Resources.getSystem() : pm.getResourcesForApplication(pkg);
-                int resId = res.getIdentifier(drawableName, "drawable", pkg);
-                if (resId != 0) {
-                    return res.getDrawable(resId, context.getTheme());
-                }
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, "Drawable load failed for pkg: " + pkg + ", name: " + drawableName, e);
-            }
-            return null;
-        }
-
-        private String getLabel(Context context, String pkg) {
-            PackageManager pm = context.getPackageManager();
-            try {
-                return pm.getApplicationInfo(pkg, 0).loadLabel(pm).toString();
-            } catch (PackageManager.NameNotFoundException e) {
-                Log.e(TAG, "Label load failed for pkg: " + pkg, e);
-            }
-            return pkg;
-        }
     }
 }
\ No newline at end of file
@@ -0,0 +1,193 @@
+/*
+ * Copyright (C) 2026 HertzifyOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hertzify.settings.preferences;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.ComponentInfo;
+import android.content.pm.PackageItemInfo;
+import android.content.pm.PackageManager;
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.drawable.Drawable;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.LocaleList;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.ArrayMap;
+import android.util.LruCache;
+
+import java.util.Map;
+
+/**
+ * Process-wide cache of app icons and labels for app lists.
+ *
+ * Icons are decoded on a worker only when a row asks for them, scaled down to
+ * the requested size and kept in an LRU with a fixed byte budget, so memory
+ * does not grow with the number of installed apps. Entries are keyed by
+ * package and version code, so an update naturally misses the cache. Labels
+ * are cached for the current locale and dropped when the locale changes.
+ *
+ * Icon packs and themes are overlays, so an overlay change drops everything and
+ * bumps a generation that icons still being loaded are checked against.
+ */
+public final class AppInfoCache {
+
+    private static final int ICON_CACHE_BYTES = 4 * 1024 * 1024;
+
+    private static AppInfoCache sInstance;
+
+    private final Context mContext;
+    private final PackageManager mPm;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Handler mWorker;
+
+    private final LruCache<String, Bitmap> mIcons = new LruCache<String, Bitmap>(ICON_CACHE_BYTES) {
+        @Override
+        protected int sizeOf(String key, Bitmap value) {
+            return value.getAllocationByteCount();
+        }
+    };
+
+    private final Map<String, CharSequence> mLabels = new ArrayMap<>();
+    private LocaleList mLabelLocales;
+
+    private volatile int mGeneration;
+
+    public interface OnIconLoadedListener {
+        /** Called on the main thread. */
+        public void onIconLoaded(Bitmap icon);
+    }
+
+    private AppInfoCache(Context context) {
+        mContext = context;
+        mPm = context.getPackageManager();
+        HandlerThread thread = new HandlerThread("AppInfoCache");
+        thread.start();
+        mWorker = new Handler(thread.getLooper());
+
+        IntentFilter filter = new IntentFilter(Intent.ACTION_OVERLAY_CHANGED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mOverlayReceiver, filter);
+    }
+
+    public synchronized static AppInfoCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new AppInfoCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the label of an application or component, loading it on a miss.
+     * May be called from any thread.
+     */
+    public CharSequence getLabel(PackageItemInfo info) {
+        final ApplicationInfo appInfo = info instanceof ComponentInfo
+                ? ((ComponentInfo) info).applicationInfo : (ApplicationInfo) info;
+        final String key = info.packageName + "/" + info.name + ":" + appInfo.longVersionCode;
+        final LocaleList locales = mContext.getResources().getConfiguration().getLocales();
+        synchronized (mLabels) {
+            if (!locales.equals(mLabelLocales)) {
+                mLabels.clear();
+                mLabelLocales = locales;
+            }
+            final CharSequence cached = mLabels.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        final CharSequence label = info.loadLabel(mPm);
+        synchronized (mLabels) {
+            if (locales.equals(mLabelLocales)) {
+                mLabels.put(key, label);
+            }
+        }
+        return label;
+    }
+
+    /** Returns the cached icon if it is in memory, never loads. */
+    public Bitmap peekIcon(ApplicationInfo appInfo, int sizePx) {
+        return mIcons.get(iconKey(appInfo, sizePx));
+    }
+
+    /**
+     * Loads the icon of {@code appInfo} scaled to {@code sizePx} on the worker,
+     * unless it is already cached, and hands it to {@code listener}. The load
+     * can be cancelled with {@link #cancelIconLoads(Object)} for {@code token},
+     * typically the view holder it is for.
+     */
+    public void loadIcon(ApplicationInfo appInfo, int sizePx, Object token,
+            OnIconLoadedListener listener) {
+        final String key = iconKey(appInfo, sizePx);
+        final Bitmap cached = mIcons.get(key);
+        if (cached != null) {
+            listener.onIconLoaded(cached);
+            return;
+        }
+        final int generation = mGeneration;
+        mWorker.postAtTime(() -> {
+            Bitmap icon = mIcons.get(key);
+            if (icon == null) {
+                icon = renderIcon(appInfo.loadIcon(mPm), sizePx);
+                if (generation == mGeneration) {
+                    mIcons.put(key, icon);
+                }
+            }
+            final Bitmap result = icon;
+            mMainHandler.postAtTime(() -> listener.onIconLoaded(result), token,
+                    SystemClock.uptimeMillis());
+        }, token, SystemClock.uptimeMillis());
+    }
+
+    /** Drops the icon loads for {@code token} that did not deliver yet. */
+    public void cancelIconLoads(Object token) {
+        mWorker.removeCallbacksAndMessages(token);
+        mMainHandler.removeCallbacksAndMessages(token);
+    }
+
+    public void invalidate() {
+        mGeneration++;
+        mIcons.evictAll();
+        synchronized (mLabels) {
+            mLabels.clear();
+        }
+    }
+
+    private static String iconKey(ApplicationInfo appInfo, int sizePx) {
+        return appInfo.packageName + ":" + appInfo.longVersionCode + "@" + sizePx;
+    }
+
+    private static Bitmap renderIcon(Drawable drawable, int sizePx) {
+        final Bitmap bitmap = Bitmap.createBitmap(sizePx, sizePx, Bitmap.Config.ARGB_8888);
+        final Canvas canvas = new Canvas(bitmap);
+        drawable.setBounds(0, 0, sizePx, sizePx);
+        drawable.draw(canvas);
+        return bitmap;
+    }
+
+    private final BroadcastReceiver mOverlayReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+}
@@ -16,16 +16,22 @@
  */
 package com.hertzify.settings.preferences;
 
+import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.ResolveInfo;
 import android.content.res.TypedArray;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.os.SystemProperties;
 import android.os.UserHandle;
 import android.telephony.TelephonyManager;
+import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -35,12 +41,16 @@ import android.widget.TextView;
 import androidx.preference.Preference;
 import androidx.preference.PreferenceGroup;
 import androidx.preference.PreferenceManager;
+import androidx.preference.PreferenceScreen;
 import androidx.preference.PreferenceViewHolder;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
+import java.util.WeakHashMap;
 
 import com.android.internal.lineage.hardware.LineageHardwareManager;
 
@@ -72,6 +82,18 @@ public class ConstraintsHelper {
 
     private String[] mReplacesKey = null;
 
+    private boolean mAsync = false;
+
+    private boolean mPending = false;
+
+    private String mRequiresPackage;
+
+    private String mRequiresAction;
+
+    private String mRequiresFeature;
+
+    private String mRequiresProperty;
+
     public ConstraintsHelper(Context context, AttributeSet attrs, Preference pref) {
         mContext = context;
         mAttrs = attrs;
@@ -84,15 +106,29 @@ public class ConstraintsHelper {
         if (replacesKey != null) {
             mReplacesKey = replacesKey.split("\\|");
         }
-        setAvailable(checkConstraints());
+        a.recycle();
+
+        final long start = SystemClock.elapsedRealtime();
+        boolean available = checkConstraints();
+        if (available && mAsync && hasLookups()) {
+            // Show the preference optimistically, it is hidden once resolved if needed
+            mPending = true;
+            AsyncResolver.get().resolve(this);
+        } else {
+            setAvailable(available && checkLookups());
+        }
 
-        Log.d(TAG, "construct key=" + mPref.getKey() + " available=" + mAvailable);
+        Log.d(TAG, "construct key=" + mPref.getKey() + " available=" + mAvailable
+                + " pending=" + mPending + " took=" + (SystemClock.elapsedRealtime() - start) + "ms");
     }
 
     public void setAvailable(boolean available) {
         mAvailable = available;
-        if (!available) {
-            Graveyard.get(mContext).addTombstone(mPref.getKey());
+        // Before the preference is attached the tombstone is laid in onAttached(),
+        // once we know which hierarchy it belongs to.
+        final PreferenceManager mgr = mPref.getPreferenceManager();
+        if (!available && mgr != null) {
+            Graveyard.get(mContext).addTombstone(mgr, mPref.getKey());
         }
     }
 
@@ -100,26 +136,31 @@ public class ConstraintsHelper {
         return mAvailable;
     }
 
-    public void setVerifyIntent(boolean verifyIntent) {
-        mVerifyIntent = verifyIntent;
+    /**
+     * Whether the constraints are still being resolved in the background.
+     */
+    public boolean isPending() {
+        return mPending;
     }
 
-    private PreferenceGroup getParent(Preference preference) {
-        return getParent(mPref.getPreferenceManager().getPreferenceScreen(), preference);
+    /**
+     * Applies a result from the {@link AsyncResolver}, on the main thread. Lays the
+     * tombstones but leaves the reap to the caller; returns the hierarchy to reap,
+     * or null if the preference is not attached.
+     */
+    private PreferenceManager onResolved(boolean available) {
+        mPending = false;
+        final PreferenceManager mgr = mPref.getPreferenceManager();
+        if (!available) {
+            setAvailable(false);
+        } else if (mgr != null && mReplacesKey != null) {
+            Graveyard.get(mContext).addTombstones(mgr, mReplacesKey);
+        }
+        return mgr;
     }
 
-    private PreferenceGroup getParent(PreferenceGroup root, Preference preference) {
-        for (int i = 0; i < root.getPreferenceCount(); i++) {
-            Preference p = root.getPreference(i);
-            if (p == preference)
-                return root;
-            if (PreferenceGroup.class.isInstance(p)) {
-                PreferenceGroup parent = getParent((PreferenceGroup) p, preference);
-                if (parent != null)
-                    return parent;
-            }
-        }
-        return null;
+    public void setVerifyIntent(boolean verifyIntent) {
+        mVerifyIntent = verifyIntent;
     }
 
     private boolean isNegated(String key) {
@@ -130,12 +171,15 @@ public class ConstraintsHelper {
         Intent i = mPref.getIntent();
         if (i != null) {
             if (!resolveIntent(mContext, i)) {
-                Graveyard.get(mContext).addTombstone(mPref.getKey());
                 mAvailable = false;
             }
         }
     }
 
+    /**
+     * Reads the constraints from XML and checks the cheap ones. The PackageManager
+     * and property lookups are left to {@link #checkLookups()}.
+     */
     private boolean checkConstraints() {
         if (mAttrs == null) {
             return true;
@@ -145,6 +189,11 @@ public class ConstraintsHelper {
                 R.styleable.SelfRemovingPreference);
 
         try {
+            mAsync = a.getBoolean(R.styleable.SelfRemovingPreference_asyncConstraints, false);
+            mRequiresPackage = a.getString(R.styleable.SelfRemovingPreference_requiresPackage);
+            mRequiresAction = a.getString(R.styleable.SelfRemovingPreference_requiresAction);
+            mRequiresFeature = a.getString(R.styleable.SelfRemovingPreference_requiresFeature);
+            mRequiresProperty = a.getString(R.styleable.SelfRemovingPreference_requiresProperty);
 
             // Check if the current user is an owner
             boolean rOwner = a.getBoolean(R.styleable.SelfRemovingPreference_requiresOwner, false);
@@ -152,62 +201,6 @@ public class ConstraintsHelper {
                 return false;
             }
 
-            // Check if a specific package is installed
-            String rPackage = a.getString(R.styleable.SelfRemovingPreference_requiresPackage);
-            if (rPackage != null) {
-                boolean negated = isNegated(rPackage);
-                if (negated) {
-                    rPackage = rPackage.substring(1);
-                }
-                boolean available = isPackageInstalled(mContext, rPackage, false);
-                if (available == negated) {
-                    return false;
-                }
-            }
-
-            // Check if an intent can be resolved to handle the given action
-            String rAction = a.getString(R.styleable.SelfRemovingPreference_requiresAction);
-            if (rAction != null) {
-                boolean negated = isNegated(rAction);
-                if (negated) {
-                    rAction = rAction.substring(1);
-                }
-                boolean available = resolveIntent(mContext, rAction);
-                if (available == negated) {
-                    return false;
-                }
-            }
-
-            // Check if a system feature is available
-            String rFeature = a.getString(R.styleable.SelfRemovingPreference_requiresFeature);
-            if (rFeature != null) {
-                boolean negated = isNegated(rFeature);
-                if (negated) {
-                    rFeature = rFeature.substring(1);
-                }
-                boolean available = rFeature.startsWith("lineagehardware:") ?
-                        false/*LineageHardwareManager.getInstance(mContext).isSupported(
-                                rFeature.substring("lineagehardware:".length()))*/ :
-                        hasSystemFeature(mContext, rFeature);
-                if (available == negated) {
-                    return false;
-                }
-            }
-
-            // Check a boolean system property
-            String rProperty = a.getString(R.styleable.SelfRemovingPreference_requiresProperty);
-            if (rProperty != null) {
-                boolean negated = isNegated(rProperty);
-                if (negated) {
-                    rProperty = rProperty.substring(1);
-                }
-                String value = SystemProperties.get(rProperty);
-                boolean available = value != null && Boolean.parseBoolean(value);
-                if (available == negated) {
-                    return false;
-                }
-            }
-
             // Check a config resource. This can be a bool, string or integer.
             // The preference is removed if any of the following are true:
             // * A bool resource is false.
@@ -237,6 +230,77 @@ public class ConstraintsHelper {
         return true;
     }
 
+    private boolean hasLookups() {
+        return mRequiresPackage != null || mRequiresAction != null
+                || mRequiresFeature != null || mRequiresProperty != null;
+    }
+
+    /**
+     * Checks the constraints that need PackageManager or property lookups. Safe to
+     * call from any thread.
+     */
+    private boolean checkLookups() {
+        final Memo memo = Memo.get(mContext);
+
+        // Check if a specific package is installed
+        String rPackage = mRequiresPackage;
+        if (rPackage != null) {
+            boolean negated = isNegated(rPackage);
+            if (negated) {
+                rPackage = rPackage.substring(1);
+            }
+            boolean available = memo.isPackageInstalled(rPackage);
+            if (available == negated) {
+                return false;
+            }
+        }
+
+        // Check if an intent can be resolved to handle the given action
+        String rAction = mRequiresAction;
+        if (rAction != null) {
+            boolean negated = isNegated(rAction);
+            if (negated) {
+                rAction = rAction.substring(1);
+            }
+            boolean available = memo.resolveIntent(rAction);
+            if (available == negated) {
+                return false;
+            }
+        }
+
+        // Check if a system feature is available
+        String rFeature = mRequiresFeature;
+        if (rFeature != null) {
+            boolean negated = isNegated(rFeature);
+            if (negated) {
+                rFeature = rFeature.substring(1);
+            }
+            boolean available = rFeature.startsWith("lineagehardware:") ?
+                    false/*LineageHardwareManager.getInstance(mContext).isSupported(
+                            rFeature.substring("lineagehardware:".length()))*/ :
+                    memo.hasSystemFeature(rFeature);
+            if (available == negated) {
+                return false;
+            }
+        }
+
+        // Check a boolean system property
+        String rProperty = mRequiresProperty;
+        if (rProperty != null) {
+            boolean negated = isNegated(rProperty);
+            if (negated) {
+                rProperty = rProperty.substring(1);
+            }
+            String value = memo.getProperty(rProperty);
+            boolean available = value != null && Boolean.parseBoolean(value);
+            if (available == negated) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
     /**
      * Returns whether the device supports a particular feature
      */
@@ -259,14 +323,8 @@ public class ConstraintsHelper {
      */
     public static boolean isPackageInstalled(Context context, String pkg, boolean ignoreState) {
         if (pkg != null) {
-            try {
-                PackageInfo pi = context.getPackageManager().getPackageInfo(pkg, 0);
-                if (!pi.applicationInfo.enabled && !ignoreState) {
-                    return false;
-                }
-            } catch (PackageManager.NameNotFoundException e) {
-                return false;
-            }
+            return PackageSnapshot.get(context).isPackageInstalled(pkg,
+                    UserHandle.myUserId(), ignoreState);
         }
 
         return true;
@@ -308,13 +366,18 @@ public class ConstraintsHelper {
     }
 
     public void onAttached() {
+        final Graveyard graveyard = Graveyard.get(mContext);
+        final PreferenceManager mgr = mPref.getPreferenceManager();
+
         checkIntent();
 
-        if (isAvailable() && mReplacesKey != null) {
-            Graveyard.get(mContext).addTombstones(mReplacesKey);
+        if (!isAvailable()) {
+            graveyard.addTombstone(mgr, mPref.getKey());
+        } else if (mReplacesKey != null && !mPending) {
+            graveyard.addTombstones(mgr, mReplacesKey);
         }
 
-        Graveyard.get(mContext).summonReaper(mPref.getPreferenceManager());
+        graveyard.summonReaper(mgr);
     }
 
     public void onBindViewHolder(PreferenceViewHolder holder) {
@@ -330,89 +393,277 @@ public class ConstraintsHelper {
         }
     }
 
+    /**
+     * Resolves constraints marked asyncConstraints on a worker thread and hands the
+     * results back to the main thread in batches, so a screen full of them costs one
+     * hierarchy update per batch instead of one per preference.
+     */
+    private static class AsyncResolver {
+
+        private static AsyncResolver sInstance;
+
+        private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+        private final Handler mHandler;
+
+        private final List<ConstraintsHelper> mResolved = new ArrayList<>();
+        private final List<Boolean> mResults = new ArrayList<>();
+
+        private AsyncResolver() {
+            HandlerThread thread = new HandlerThread(TAG);
+            thread.start();
+            mHandler = new Handler(thread.getLooper());
+        }
+
+        public synchronized static AsyncResolver get() {
+            if (sInstance == null) {
+                sInstance = new AsyncResolver();
+            }
+            return sInstance;
+        }
+
+        public void resolve(ConstraintsHelper helper) {
+            mHandler.post(() -> {
+                final long start = SystemClock.elapsedRealtime();
+                final boolean available = helper.checkLookups();
+                if (DEBUG) Log.d(TAG, "resolved key=" + helper.mPref.getKey()
+                        + " available=" + available
+                        + " took=" + (SystemClock.elapsedRealtime() - start) + "ms");
+                synchronized (mResolved) {
+                    if (mResolved.isEmpty()) {
+                        mMainHandler.post(this::deliver);
+                    }
+                    mResolved.add(helper);
+                    mResults.add(available);
+                }
+            });
+        }
+
+        private void deliver() {
+            final List<ConstraintsHelper> resolved;
+            final List<Boolean> results;
+            synchronized (mResolved) {
+                resolved = new ArrayList<>(mResolved);
+                results = new ArrayList<>(mResults);
+                mResolved.clear();
+                mResults.clear();
+            }
+            if (resolved.isEmpty()) {
+                return;
+            }
+            // Lay every tombstone of the batch first, then reap each hierarchy once
+            final Set<PreferenceManager> managers = new ArraySet<>();
+            for (int i = 0; i < resolved.size(); i++) {
+                final PreferenceManager mgr = resolved.get(i).onResolved(results.get(i));
+                if (mgr != null) {
+                    managers.add(mgr);
+                }
+            }
+            final Graveyard graveyard = Graveyard.get(resolved.get(0).mContext);
+            for (PreferenceManager mgr : managers) {
+                graveyard.reap(mgr);
+            }
+        }
+    }
+
+    /**
+     * Process-wide memo of constraint lookups, so the same action, feature or property
+     * appearing on several screens costs one lookup. Packages are answered by the
+     * shared PackageSnapshot. Action results are dropped on any package broadcast.
+     * Features and read-only properties are fixed for the lifetime of the process;
+     * other properties can be set at any time without notice, so they are read live.
+     */
+    private static class Memo {
+
+        private static Memo sInstance;
+
+        private final Context mContext;
+
+        private final Map<String, Boolean> mActions = new ArrayMap<>();
+        private final Map<String, Boolean> mFeatures = new ArrayMap<>();
+        // Only ro.* properties, guarded by itself
+        private final Map<String, String> mProperties = new ArrayMap<>();
+
+        private Memo(Context context) {
+            mContext = context;
+
+            IntentFilter filter = new IntentFilter();
+            filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            filter.addAction(Intent.ACTION_PACKAGE_REPLACED);
+            filter.addDataScheme("package");
+            mContext.registerReceiver(mPackageReceiver, filter);
+        }
+
+        public synchronized static Memo get(Context context) {
+            if (sInstance == null) {
+                sInstance = new Memo(context.getApplicationContext());
+            }
+            return sInstance;
+        }
+
+        public boolean isPackageInstalled(String pkg) {
+            return ConstraintsHelper.isPackageInstalled(mContext, pkg, false);
+        }
+
+        public boolean resolveIntent(String action) {
+            synchronized (mActions) {
+                Boolean cached = mActions.get(action);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            boolean result = ConstraintsHelper.resolveIntent(mContext, action);
+            synchronized (mActions) {
+                mActions.put(action, result);
+            }
+            return result;
+        }
+
+        public boolean hasSystemFeature(String feature) {
+            synchronized (mFeatures) {
+                Boolean cached = mFeatures.get(feature);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            boolean result = ConstraintsHelper.hasSystemFeature(mContext, feature);
+            synchronized (mFeatures) {
+                mFeatures.put(feature, result);
+            }
+            return result;
+        }
+
+        public String getProperty(String property) {
+            if (!property.startsWith("ro.")) {
+                return SystemProperties.get(property);
+            }
+            synchronized (mProperties) {
+                String cached = mProperties.get(property);
+                if (cached != null) {
+                    return cached;
+                }
+            }
+            String result = SystemProperties.get(property);
+            synchronized (mProperties) {
+                mProperties.put(property, result);
+            }
+            return result;
+        }
+
+        private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                if (DEBUG) Log.d(TAG, "Package change, dropping actions: " + intent.getAction());
+                synchronized (mActions) {
+                    mActions.clear();
+                }
+            }
+        };
+    }
+
     /**
      * If we want to keep this at the preference level vs the fragment level, we need to
      * collate all the preferences that need to be removed when attached to the
      * hierarchy, then purge them all when loading is complete. The Graveyard keeps track
-     * of this, and will reap the dead when onAttached is called.
+     * of this per PreferenceManager, and reaps the dead of a hierarchy in a single
+     * traversal posted from the first onAttached of a batch, after the attach pass.
+     * Keys not found in the hierarchy by then are dropped.
      */
     private static class Graveyard {
 
-        private Set<String> mDeathRow = new ArraySet<>();
-
         private static Graveyard sInstance;
 
-        private final Context mContext;
+        // Asynchronous so the reap is not held behind the traversal barrier of the
+        // first frame.
+        private final Handler mHandler = Handler.createAsync(Looper.getMainLooper());
 
-        private Graveyard(Context context) {
-            mContext = context;
+        private final Map<PreferenceManager, Set<String>> mDeathRows = new WeakHashMap<>();
+        private final Set<PreferenceManager> mScheduled = new ArraySet<>();
+
+        private Graveyard() {
         }
 
         public synchronized static Graveyard get(Context context) {
             if (sInstance == null) {
-                sInstance = new Graveyard(context);
+                sInstance = new Graveyard();
             }
             return sInstance;
         }
 
-        public void addTombstone(String pref) {
-            synchronized (mDeathRow) {
-                mDeathRow.add(pref);
+        private Set<String> getDeathRow(PreferenceManager mgr) {
+            Set<String> deathRow = mDeathRows.get(mgr);
+            if (deathRow == null) {
+                deathRow = new ArraySet<>();
+                mDeathRows.put(mgr, deathRow);
             }
+            return deathRow;
         }
 
-        public void addTombstones(String[] prefs) {
-            synchronized (mDeathRow) {
-                mDeathRow.addAll(Arrays.asList(prefs));
+        public void addTombstone(PreferenceManager mgr, String pref) {
+            synchronized (mDeathRows) {
+                getDeathRow(mgr).add(pref);
             }
         }
 
-        private PreferenceGroup getParent(Preference p1, Preference p2) {
-            return getParent(p1.getPreferenceManager().getPreferenceScreen(), p2);
+        public void addTombstones(PreferenceManager mgr, String[] prefs) {
+            synchronized (mDeathRows) {
+                getDeathRow(mgr).addAll(Arrays.asList(prefs));
+            }
         }
 
-        private PreferenceGroup getParent(PreferenceGroup root, Preference preference) {
-            for (int i = 0; i < root.getPreferenceCount(); i++) {
-                Preference p = root.getPreference(i);
-                if (p == preference)
-                    return root;
-                if (PreferenceGroup.class.isInstance(p)) {
-                    PreferenceGroup parent = getParent((PreferenceGroup) p, preference);
-                    if (parent != null)
-                        return parent;
+        public void summonReaper(PreferenceManager mgr) {
+            synchronized (mDeathRows) {
+                final Set<String> deathRow = mDeathRows.get(mgr);
+                if (deathRow == null || deathRow.isEmpty() || !mScheduled.add(mgr)) {
+                    return;
                 }
             }
-            return null;
+            mHandler.post(() -> reap(mgr));
         }
 
-        private void hidePreference(PreferenceManager mgr, Preference pref) {
-            pref.setVisible(false);
-            // Hide the group if nothing is visible
-            final PreferenceGroup group = getParent(pref, pref);
-            boolean allHidden = true;
-            for (int i = 0; i < group.getPreferenceCount(); i++) {
-                if (group.getPreference(i).isVisible()) {
-                    allHidden = false;
-                    break;
+        private void reap(PreferenceManager mgr) {
+            final PreferenceScreen screen = mgr.getPreferenceScreen();
+            final Set<PreferenceGroup> parents = new ArraySet<>();
+            synchronized (mDeathRows) {
+                mScheduled.remove(mgr);
+                final Set<String> deathRow = mDeathRows.get(mgr);
+                if (screen == null || deathRow == null || deathRow.isEmpty()) {
+                    return;
                 }
+                reapGroup(screen, deathRow, parents);
+                // Whatever is not found is not in this hierarchy, keeping it would
+                // only make every later reap walk the tree for nothing
+                deathRow.clear();
             }
-            if (allHidden) {
-                group.setVisible(false);
+
+            // Hide the group if nothing is visible
+            for (PreferenceGroup group : parents) {
+                boolean allHidden = true;
+                for (int i = 0; i < group.getPreferenceCount(); i++) {
+                    if (group.getPreference(i).isVisible()) {
+                        allHidden = false;
+                        break;
+                    }
+                }
+                if (allHidden) {
+                    group.setVisible(false);
+                }
             }
         }
 
-        public void summonReaper(PreferenceManager mgr) {
-            synchronized (mDeathRow) {
-                Set<String> notReadyForReap = new ArraySet<>();
-                for (String dead : mDeathRow) {
-                    Preference deadPref = mgr.findPreference(dead);
-                    if (deadPref != null) {
-                        hidePreference(mgr, deadPref);
-                    } else {
-                        notReadyForReap.add(dead);
-                    }
+        private void reapGroup(PreferenceGroup group, Set<String> deathRow,
+                Set<PreferenceGroup> parents) {
+            for (int i = 0; i < group.getPreferenceCount(); i++) {
+                final Preference p = group.getPreference(i);
+                final String key = p.getKey();
+                if (key != null && deathRow.remove(key)) {
+                    p.setVisible(false);
+                    parents.add(group);
+                }
+                if (p instanceof PreferenceGroup) {
+                    reapGroup((PreferenceGroup) p, deathRow, parents);
                 }
-                mDeathRow = notReadyForReap;
             }
         }
     }
@@ -30,6 +30,7 @@ import androidx.annotation.Nullable;
 import androidx.core.content.res.ResourcesCompat;
 import androidx.core.view.ViewCompat;
 import androidx.preference.Preference;
+import androidx.preference.PreferenceDataStore;
 import androidx.preference.PreferenceViewHolder;
 
 import com.android.settings.R;
@@ -55,6 +56,7 @@ public class CustomSeekBarPreference extends SliderPreference {
     private CharSequence mUserSummary;  
 
     private boolean mInUserDrag = false;
+    private boolean mCoalesceWrites = false;
 
     public CustomSeekBarPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
@@ -92,6 +94,8 @@ public class CustomSeekBarPreference extends SliderPreference {
             final boolean continuous = a.getBoolean(
                     R.styleable.CustomSeekBarPreference_continuousUpdates, false);
             setUpdatesContinuously(continuous);
+            mCoalesceWrites = a.getBoolean(
+                    R.styleable.CustomSeekBarPreference_coalesceWrites, false);
 
             mDefaultValueText = a.getString(
                     R.styleable.CustomSeekBarPreference_defaultValueText);
@@ -179,6 +183,27 @@ public class CustomSeekBarPreference extends SliderPreference {
         updateSummaryNow();
     }
 
+    @Override
+    public void setPreferenceDataStore(@Nullable PreferenceDataStore dataStore) {
+        super.setPreferenceDataStore(dataStore);
+        if (mCoalesceWrites && dataStore instanceof CoalescingDataStore) {
+            ((CoalescingDataStore) dataStore).setCoalescingEnabled(true);
+        }
+    }
+
+    @Override
+    public void onDetached() {
+        flushPendingWrites();
+        super.onDetached();
+    }
+
+    private void flushPendingWrites() {
+        final PreferenceDataStore dataStore = getPreferenceDataStore();
+        if (dataStore instanceof CoalescingDataStore) {
+            ((CoalescingDataStore) dataStore).flush();
+        }
+    }
+
     @Override
     public void onBindViewHolder(@NonNull PreferenceViewHolder holder) {
         super.onBindViewHolder(holder);
@@ -265,6 +290,7 @@ public class CustomSeekBarPreference extends SliderPreference {
                 public void onStopTrackingTouch(@NonNull Slider s) {
                     mInUserDrag = false;
                     applyUserValue(Math.round(s.getValue()), s);
+                    flushPendingWrites();
                     updatePlusMinusEnabledStates(holder);
                 }
             });
@@ -22,11 +22,11 @@ public class GlobalSettingSeekBarPreference extends CustomSeekBarPreference {
 
     public GlobalSettingSeekBarPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
-        setPreferenceDataStore(new GlobalSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new GlobalSettingsStore(context));
     }
 
     public GlobalSettingSeekBarPreference(Context context) {
         super(context, null);
-        setPreferenceDataStore(new GlobalSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new GlobalSettingsStore(context));
     }
 }
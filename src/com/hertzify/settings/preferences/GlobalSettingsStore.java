@@ -16,36 +16,57 @@
 package com.hertzify.settings.preferences;
 
 import android.content.ContentResolver;
+import android.content.Context;
 import android.preference.PreferenceDataStore;
+import android.os.UserHandle;
 import android.provider.Settings;
 
 public class GlobalSettingsStore extends androidx.preference.PreferenceDataStore
-        implements PreferenceDataStore {
+        implements PreferenceDataStore, CoalescingDataStore {
 
     private ContentResolver mContentResolver;
+    private SettingsCache mCache;
+    private final SettingsWriteCoalescer mWriter = new SettingsWriteCoalescer();
 
-    public GlobalSettingsStore(ContentResolver contentResolver) {
-        mContentResolver = contentResolver;
+    public GlobalSettingsStore(Context context) {
+        mContentResolver = context.getContentResolver();
+        mCache = SettingsCache.get(context);
+    }
+
+    @Override
+    public void setCoalescingEnabled(boolean enabled) {
+        mWriter.setEnabled(enabled);
+    }
+
+    @Override
+    public void flush() {
+        mWriter.flush();
     }
 
     public boolean getBoolean(String key, boolean defValue) {
-        return getInt(key, defValue ? 1 : 0) != 0;
+        mWriter.flush(key);
+        return mCache.getInt(SettingsCache.NAMESPACE_GLOBAL, key, defValue ? 1 : 0,
+                UserHandle.USER_SYSTEM) != 0;
     }
 
     public float getFloat(String key, float defValue) {
-        return Settings.Global.getFloat(mContentResolver, key, defValue);
+        mWriter.flush(key);
+        return mCache.getFloat(SettingsCache.NAMESPACE_GLOBAL, key, defValue, UserHandle.USER_SYSTEM);
     }
 
     public int getInt(String key, int defValue) {
-        return Settings.Global.getInt(mContentResolver, key, defValue);
+        mWriter.flush(key);
+        return mCache.getInt(SettingsCache.NAMESPACE_GLOBAL, key, defValue, UserHandle.USER_SYSTEM);
     }
 
     public long getLong(String key, long defValue) {
-        return Settings.Global.getLong(mContentResolver, key, defValue);
+        mWriter.flush(key);
+        return mCache.getLong(SettingsCache.NAMESPACE_GLOBAL, key, defValue, UserHandle.USER_SYSTEM);
     }
 
     public String getString(String key, String defValue) {
-        String result = Settings.Global.getString(mContentResolver, key);
+        mWriter.flush(key);
+        String result = mCache.getString(SettingsCache.NAMESPACE_GLOBAL, key, UserHandle.USER_SYSTEM);
         return result == null ? defValue : result;
     }
 
@@ -54,18 +75,30 @@ public class GlobalSettingsStore extends androidx.preference.PreferenceDataStore
     }
 
     public void putFloat(String key, float value) {
-        Settings.Global.putFloat(mContentResolver, key, value);
+        mWriter.write(key, () -> {
+            Settings.Global.putFloat(mContentResolver, key, value);
+            mCache.invalidate(SettingsCache.NAMESPACE_GLOBAL, key);
+        });
     }
 
     public void putInt(String key, int value) {
-        Settings.Global.putInt(mContentResolver, key, value);
+        mWriter.write(key, () -> {
+            Settings.Global.putInt(mContentResolver, key, value);
+            mCache.invalidate(SettingsCache.NAMESPACE_GLOBAL, key);
+        });
     }
 
     public void putLong(String key, long value) {
-        Settings.Global.putLong(mContentResolver, key, value);
+        mWriter.write(key, () -> {
+            Settings.Global.putLong(mContentResolver, key, value);
+            mCache.invalidate(SettingsCache.NAMESPACE_GLOBAL, key);
+        });
     }
 
     public void putString(String key, String value) {
-        Settings.Global.putString(mContentResolver, key, value);
+        mWriter.write(key, () -> {
+            Settings.Global.putString(mContentResolver, key, value);
+            mCache.invalidate(SettingsCache.NAMESPACE_GLOBAL, key);
+        });
     }
 }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2026 HertzifyOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hertzify.settings.preferences;
+
+import static android.os.UserHandle.USER_CURRENT;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.om.IOverlayManager;
+import android.content.om.OverlayInfo;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.util.ArrayMap;
+import android.util.Log;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Process-wide snapshot of the overlay states of the current user.
+ *
+ * All overlays are fetched with a single call the first time one is asked for,
+ * and served from memory until an overlay, package or user switch broadcast
+ * drops the snapshot, so a screen full of overlay toggles costs one service
+ * lookup and one IPC instead of one of each per toggle.
+ *
+ * Overlay changes are applied on a single background thread in request order.
+ * Requests for an overlay that is still queued replace the queued state, so
+ * rapid toggles end in one call for the final state.
+ */
+public final class OverlayStateRepository {
+
+    private static final String TAG = OverlayStateRepository.class.getSimpleName();
+
+    private static OverlayStateRepository sInstance;
+
+    private final Context mContext;
+    private final IOverlayManager mOverlayManager;
+
+    // Overlays by package name, null until fetched. Guarded by this.
+    private Map<String, OverlayInfo> mOverlays;
+
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final Handler mHandler;
+    // Requested states waiting for the worker, by package. Guarded by itself.
+    private final Map<String, PendingChange> mPending = new ArrayMap<>();
+
+    public interface OnOverlayAppliedListener {
+        /** Called on the main thread with the state that was requested last. */
+        public void onOverlayApplied(String packageName, boolean enabled, boolean success);
+    }
+
+    private static final class PendingChange {
+        boolean enabled;
+        // Weak so a queued change does not keep a detached preference alive
+        WeakReference<OnOverlayAppliedListener> listener;
+    }
+
+    private OverlayStateRepository(Context context) {
+        mContext = context;
+        mOverlayManager = IOverlayManager.Stub.asInterface(
+                ServiceManager.getService(Context.OVERLAY_SERVICE));
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_OVERLAY_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        mContext.registerReceiver(mReceiver, filter);
+        // USER_CURRENT now means somebody else; the broadcast carries no package
+        mContext.registerReceiver(mReceiver, new IntentFilter(Intent.ACTION_USER_SWITCHED));
+    }
+
+    public synchronized static OverlayStateRepository get(Context context) {
+        if (sInstance == null) {
+            sInstance = new OverlayStateRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /** Returns the overlay manager service, or null if it is not available. */
+    public IOverlayManager getOverlayManager() {
+        return mOverlayManager;
+    }
+
+    /** Returns the state of overlay {@code packageName}, or null if there is none. */
+    public synchronized OverlayInfo getOverlayInfo(String packageName) {
+        if (mOverlays == null) {
+            mOverlays = fetchOverlays();
+        }
+        return mOverlays != null ? mOverlays.get(packageName) : null;
+    }
+
+    /** Drops the snapshot, the next lookup fetches all overlays again. */
+    public synchronized void invalidate() {
+        mOverlays = null;
+    }
+
+    /**
+     * Enables or disables overlay {@code packageName} on the worker and reports the
+     * outcome to {@code listener}. A request still queued for the same overlay is
+     * replaced, only the final state is applied. The listener is only weakly held
+     * and is not told if it was collected meanwhile.
+     */
+    public void setEnabled(String packageName, boolean enabled,
+            OnOverlayAppliedListener listener) {
+        synchronized (mPending) {
+            PendingChange change = mPending.get(packageName);
+            if (change == null) {
+                change = new PendingChange();
+                mPending.put(packageName, change);
+                mHandler.post(() -> applyPending(packageName));
+            }
+            change.enabled = enabled;
+            change.listener = new WeakReference<>(listener);
+        }
+    }
+
+    /** Whether a change for {@code packageName} is waiting to be applied. */
+    public boolean isPending(String packageName) {
+        synchronized (mPending) {
+            return mPending.containsKey(packageName);
+        }
+    }
+
+    private void applyPending(String packageName) {
+        final PendingChange change;
+        synchronized (mPending) {
+            change = mPending.remove(packageName);
+        }
+        if (change == null) {
+            return;
+        }
+        boolean success = false;
+        if (mOverlayManager != null) {
+            try {
+                success = mOverlayManager.setEnabled(packageName, change.enabled, USER_CURRENT);
+            } catch (SecurityException | RemoteException e) {
+                Log.e(TAG, "Failed setting overlay " + packageName + " to "
+                        + (change.enabled ? "enabled" : "disabled"), e);
+            }
+        }
+        // The broadcast follows, but a screen attaching before it must not see the old state
+        invalidate();
+        final boolean result = success;
+        mMainHandler.post(() -> {
+            final OnOverlayAppliedListener listener = change.listener.get();
+            if (listener != null) {
+                listener.onOverlayApplied(packageName, change.enabled, result);
+            }
+        });
+    }
+
+    /** Returns all overlays by package name, or null if they could not be fetched. */
+    private Map<String, OverlayInfo> fetchOverlays() {
+        if (mOverlayManager == null) {
+            return null;
+        }
+        final Map<String, OverlayInfo> overlays = new ArrayMap<>();
+        try {
+            final Map<String, List<OverlayInfo>> byTarget =
+                    mOverlayManager.getAllOverlays(USER_CURRENT);
+            for (List<OverlayInfo> infos : byTarget.values()) {
+                for (OverlayInfo info : infos) {
+                    overlays.put(info.getPackageName(), info);
+                }
+            }
+        } catch (RemoteException e) {
+            Log.e(TAG, "Failed getting overlay infos", e);
+            return null;
+        }
+        return overlays;
+    }
+
+    private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+}
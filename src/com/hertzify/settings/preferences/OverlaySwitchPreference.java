@@ -16,23 +16,19 @@
 
 package com.hertzify.settings.preferences;
 
-import static android.os.UserHandle.USER_CURRENT;
-
 import android.content.Context;
 import android.content.om.IOverlayManager;
 import android.content.om.OverlayInfo;
-import android.os.RemoteException;
-import android.os.ServiceManager;
 import android.util.AttributeSet;
-import android.util.Log;
 
 import androidx.preference.SwitchPreference;
 
-import java.lang.SecurityException;
-
-public class OverlaySwitchPreference extends SwitchPreference {
+public class OverlaySwitchPreference extends SwitchPreference
+        implements OverlayStateRepository.OnOverlayAppliedListener {
     private final static String TAG = "OverlaySwitchPreference";
     private IOverlayManager mOverlayManager;
+    // Last state the overlay manager confirmed, restored if a change fails
+    private boolean mAppliedChecked;
 
     public OverlaySwitchPreference(Context context, AttributeSet attrs, int defStyleAttr, int defStyleRes) {
         super(context, attrs, defStyleAttr, defStyleRes);
@@ -53,32 +49,37 @@ public class OverlaySwitchPreference extends SwitchPreference {
     @Override
     public void onAttached() {
         super.onAttached();
-        mOverlayManager = IOverlayManager.Stub.asInterface(
-                ServiceManager.getService(Context.OVERLAY_SERVICE));
+        final OverlayStateRepository repository = OverlayStateRepository.get(getContext());
+        mOverlayManager = repository.getOverlayManager();
         if (mOverlayManager == null) return;
-        OverlayInfo info = null;
-        try {
-            info = mOverlayManager.getOverlayInfo(getKey(), USER_CURRENT);
-        } catch (RemoteException e) {
-            Log.e(TAG, "Failed getting overlay " + getKey() + " info");
-            e.printStackTrace();
-        }
-        if (info != null) {
-            setChecked(info.isEnabled());
+        OverlayInfo info = repository.getOverlayInfo(getKey());
+        if (info != null && !repository.isPending(getKey())) {
+            // Only reflect the state, writing it back would drop the snapshot for every toggle
+            mAppliedChecked = info.isEnabled();
+            super.setChecked(mAppliedChecked);
         }
     }
 
+    /**
+     * Flips the switch right away and applies the overlay change in the background,
+     * rolling the switch back if it fails.
+     */
     @Override
     public void setChecked(boolean checked) {
         if (mOverlayManager == null) return;
-        try {
-            mOverlayManager.setEnabled(getKey(), checked, USER_CURRENT);
-        } catch (SecurityException | RemoteException e) {
-            Log.e(TAG, "Failed setting overlay " + getKey() + " to " +
-                    (checked ? "enabled" : "disabled"));
-            e.printStackTrace();
+        super.setChecked(checked);
+        OverlayStateRepository.get(getContext()).setEnabled(getKey(), checked, this);
+    }
+
+    @Override
+    public void onOverlayApplied(String packageName, boolean enabled, boolean success) {
+        if (success) {
+            mAppliedChecked = enabled;
             return;
         }
-        super.setChecked(checked);
+        if (!OverlayStateRepository.get(getContext()).isPending(packageName)) {
+            // A newer toggle is still queued otherwise, it decides the final state
+            super.setChecked(mAppliedChecked);
+        }
     }
 }
@@ -18,15 +18,20 @@
 package com.hertzify.settings.preferences;
 
 import android.content.Context;
-import android.content.Intent;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
+import android.content.pm.PackageInfo;
 import android.content.pm.ResolveInfo;
-import android.graphics.drawable.Drawable;
+import android.database.DataSetObserver;
+import android.graphics.Bitmap;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.Looper;
 import android.os.Message;
+import android.os.SystemClock;
+import android.os.UserHandle;
 import android.text.TextUtils;
+import android.util.ArrayMap;
+import android.util.Pair;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -34,20 +39,50 @@ import android.widget.BaseAdapter;
 import android.widget.ImageView;
 import android.widget.TextView;
 
+import com.android.internal.util.ArrayUtils;
 import com.android.settings.R;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
 
+/**
+ * Lists launchable packages. Packages come from the shared PackageSnapshot, so the
+ * full PackageManager query is shared with every other app list; after that the
+ * model follows package changes one package at a time, and exclusions only filter
+ * the model, they never query PackageManager again.
+ */
 public class PackageListAdapter extends BaseAdapter implements Runnable {
-    private final PackageManager mPm;
+    private static final int MSG_PACKAGES_LOADED = 0;
+    private static final int MSG_PACKAGE_RELOADED = 1;
+
+    // Worker time after which the first loaded items are shown, about one frame
+    private static final long FIRST_CHUNK_MS = 16;
+
+    private static HandlerThread sWorkerThread;
+    private static Handler sWorker;
+
+    private final Context mContext;
+    private final PackageSnapshot mSnapshot;
+    private final int mUserId;
+    private final AppInfoCache mAppInfoCache;
     private final LayoutInflater mInflater;
-    private final List<PackageItem> mInstalledPackages = new LinkedList<>();
+    // Every known package by name, regardless of exclusions. Main thread only.
+    private final Map<String, PackageItem> mAllPackages = new ArrayMap<>();
+    // Visible packages, kept sorted so lookups are binary searches and rows index in O(1)
+    private final ArrayList<PackageItem> mInstalledPackages = new ArrayList<>();
     private Set<String> mExcludedPackages = new HashSet<>();
+    private final PackageSearchIndex mSearchIndex = new PackageSearchIndex();
+    private String mFilter = "";
+    // Whether the last search fell back to close matches, packages added later follow suit
+    private boolean mFuzzyFilter;
+
+    private int mObserverCount;
+    private boolean mStale;
 
     // Packages which don't have launcher icons, but which we want to show nevertheless
     private static final String[] PACKAGE_WHITELIST = new String[] {
@@ -58,28 +93,45 @@ public class PackageListAdapter extends BaseAdapter implements Runnable {
 
     private final Handler mHandler = new Handler(Looper.getMainLooper()) {
         @Override
+        @SuppressWarnings("unchecked")
         public void handleMessage(Message msg) {
-            PackageItem item = (PackageItem) msg.obj;
-            int index = Collections.binarySearch(mInstalledPackages, item);
-            if (index < 0) {
-                mInstalledPackages.add(-index - 1, item);
-            } else {
-                mInstalledPackages.get(index).activityTitles.addAll(item.activityTitles);
+            switch (msg.what) {
+                case MSG_PACKAGES_LOADED:
+                    addPackages((List<PackageItem>) msg.obj);
+                    break;
+                case MSG_PACKAGE_RELOADED:
+                    final Pair<String, PackageItem> update = (Pair<String, PackageItem>) msg.obj;
+                    removePackage(update.first);
+                    if (update.second != null) {
+                        addPackages(Collections.singletonList(update.second));
+                    }
+                    break;
             }
             notifyDataSetChanged();
         }
     };
 
+    private final PackageSnapshot.OnPackageChangedListener mPackageListener =
+            new PackageSnapshot.OnPackageChangedListener() {
+        @Override
+        public void onPackageChanged(String packageName, int userId) {
+            if (userId == mUserId) {
+                getWorker().post(() -> reloadPackage(packageName));
+            }
+        }
+    };
+
     public static class PackageItem implements Comparable<PackageItem> {
         public final String packageName;
         public final CharSequence title;
         private final TreeSet<CharSequence> activityTitles = new TreeSet<>();
-        public final Drawable icon;
+        // Icons are loaded when a row binds, see AppInfoCache
+        final ApplicationInfo appInfo;
 
-        PackageItem(String packageName, CharSequence title, Drawable icon) {
+        PackageItem(String packageName, CharSequence title, ApplicationInfo appInfo) {
             this.packageName = packageName;
             this.title = title;
-            this.icon = icon;
+            this.appInfo = appInfo;
         }
 
         @Override
@@ -90,11 +142,36 @@ public class PackageListAdapter extends BaseAdapter implements Runnable {
     }
 
     public PackageListAdapter(Context context) {
-        mPm = context.getPackageManager();
+        mContext = context;
+        mSnapshot = PackageSnapshot.get(context);
+        mUserId = UserHandle.myUserId();
+        mAppInfoCache = AppInfoCache.get(context);
         mInflater = LayoutInflater.from(context);
         reloadList();
     }
 
+    @Override
+    public void registerDataSetObserver(DataSetObserver observer) {
+        super.registerDataSetObserver(observer);
+        // Only follow package changes while somebody is showing the list
+        if (mObserverCount++ == 0) {
+            mSnapshot.addListener(mPackageListener);
+            if (mStale) {
+                reloadList();
+            }
+        }
+    }
+
+    @Override
+    public void unregisterDataSetObserver(DataSetObserver observer) {
+        super.unregisterDataSetObserver(observer);
+        if (--mObserverCount == 0) {
+            mSnapshot.removeListener(mPackageListener);
+            // Changes are no longer tracked, catch up on the next registration
+            mStale = true;
+        }
+    }
+
     @Override
     public int getCount() {
         synchronized (mInstalledPackages) {
@@ -133,7 +210,7 @@ public class PackageListAdapter extends BaseAdapter implements Runnable {
 
         PackageItem applicationInfo = getItem(position);
         holder.title.setText(applicationInfo.title);
-        holder.icon.setImageDrawable(applicationInfo.icon);
+        bindIcon(holder, applicationInfo);
 
         boolean needSummary = applicationInfo.activityTitles.size() > 0;
         if (applicationInfo.activityTitles.size() == 1) {
@@ -152,52 +229,247 @@ public class PackageListAdapter extends BaseAdapter implements Runnable {
         return convertView;
     }
 
+    private void bindIcon(ViewHolder holder, PackageItem item) {
+        final int size = holder.icon.getLayoutParams().width;
+        holder.packageName = item.packageName;
+        // Whatever the recycled row was waiting for is no longer needed
+        mAppInfoCache.cancelIconLoads(holder);
+        final Bitmap cached = mAppInfoCache.peekIcon(item.appInfo, size);
+        if (cached != null) {
+            holder.icon.setImageBitmap(cached);
+            return;
+        }
+        holder.icon.setImageDrawable(null);
+        mAppInfoCache.loadIcon(item.appInfo, size, holder, icon -> {
+            // The row may have been recycled for another package meanwhile
+            if (item.packageName.equals(holder.packageName)) {
+                holder.icon.setImageBitmap(icon);
+            }
+        });
+    }
+
     private void reloadList() {
-        mInstalledPackages.clear();
-        new Thread(this).start();
+        mStale = false;
+        mAllPackages.clear();
+        mSearchIndex.clear();
+        synchronized (mInstalledPackages) {
+            mInstalledPackages.clear();
+        }
+        getWorker().post(this);
     }
 
+    /**
+     * Loads every launchable package on the worker. Items are merged per package and
+     * published sorted in at most two batches: whatever is ready after the first frame,
+     * then the rest. The list therefore invalidates a fixed number of times however
+     * many apps are installed.
+     */
     @Override
     public void run() {
-        final Intent mainIntent = new Intent(Intent.ACTION_MAIN, null);
-        mainIntent.addCategory(Intent.CATEGORY_LAUNCHER);
-        List<ResolveInfo> installedAppsInfo = mPm.queryIntentActivities(mainIntent, 0);
+        final long start = SystemClock.uptimeMillis();
+        boolean firstChunkPublished = false;
+        Map<String, PackageItem> loaded = new ArrayMap<>();
+
+        List<ResolveInfo> installedAppsInfo = mSnapshot.getLauncherActivities(mUserId);
 
         for (ResolveInfo info : installedAppsInfo) {
             ApplicationInfo appInfo = info.activityInfo.applicationInfo;
-            if (mExcludedPackages.contains(appInfo.packageName)) {
-                continue;
+            PackageItem item = loaded.get(appInfo.packageName);
+            if (item == null) {
+                item = new PackageItem(appInfo.packageName,
+                        mAppInfoCache.getLabel(appInfo), appInfo);
+                loaded.put(appInfo.packageName, item);
             }
+            item.activityTitles.add(mAppInfoCache.getLabel(info.activityInfo));
 
-            final PackageItem item = new PackageItem(appInfo.packageName,
-                    appInfo.loadLabel(mPm), appInfo.loadIcon(mPm));
-            item.activityTitles.add(info.loadLabel(mPm));
-            mHandler.obtainMessage(0, item).sendToTarget();
+            if (!firstChunkPublished && SystemClock.uptimeMillis() - start >= FIRST_CHUNK_MS) {
+                // Items already handed over belong to the main thread now, later
+                // activities of the same package arrive as a new item and are merged
+                publishPackages(loaded);
+                loaded = new ArrayMap<>();
+                firstChunkPublished = true;
+            }
         }
 
         for (String packageName : PACKAGE_WHITELIST) {
-            if (mExcludedPackages.contains(packageName)) {
+            if (loaded.containsKey(packageName)) {
                 continue;
             }
-            try {
-                ApplicationInfo appInfo = mPm.getApplicationInfo(packageName, 0);
-                final PackageItem item = new PackageItem(appInfo.packageName,
-                        appInfo.loadLabel(mPm), appInfo.loadIcon(mPm));
-                mHandler.obtainMessage(0, item).sendToTarget();
-            } catch (PackageManager.NameNotFoundException ignored) {
-                // package not present, so nothing to add -> ignore it
+            final PackageItem item = loadWhitelistedPackage(packageName);
+            if (item != null) {
+                loaded.put(packageName, item);
+            }
+        }
+
+        publishPackages(loaded);
+    }
+
+    private void publishPackages(Map<String, PackageItem> loaded) {
+        final List<PackageItem> items = new ArrayList<>(loaded.values());
+        Collections.sort(items);
+        mHandler.obtainMessage(MSG_PACKAGES_LOADED, items).sendToTarget();
+    }
+
+    /**
+     * Rebuilds a single package from the snapshot on the worker and hands the result
+     * to the main thread.
+     */
+    private void reloadPackage(String packageName) {
+        List<ResolveInfo> activities = mSnapshot.getLauncherActivities(packageName, mUserId);
+
+        PackageItem item = null;
+        for (ResolveInfo info : activities) {
+            if (item == null) {
+                ApplicationInfo appInfo = info.activityInfo.applicationInfo;
+                item = new PackageItem(appInfo.packageName,
+                        mAppInfoCache.getLabel(appInfo), appInfo);
+            }
+            item.activityTitles.add(mAppInfoCache.getLabel(info.activityInfo));
+        }
+        if (item == null && ArrayUtils.contains(PACKAGE_WHITELIST, packageName)) {
+            item = loadWhitelistedPackage(packageName);
+        }
+
+        // The old entry is replaced as a whole, titles of removed activities must not linger
+        mHandler.obtainMessage(MSG_PACKAGE_RELOADED, Pair.create(packageName, item))
+                .sendToTarget();
+    }
+
+    private PackageItem loadWhitelistedPackage(String packageName) {
+        PackageInfo info = mSnapshot.getPackageInfo(packageName, mUserId);
+        if (info == null) {
+            // package not present, so nothing to add -> ignore it
+            return null;
+        }
+        ApplicationInfo appInfo = info.applicationInfo;
+        return new PackageItem(appInfo.packageName, mAppInfoCache.getLabel(appInfo), appInfo);
+    }
+
+    /**
+     * Merges a sorted batch into the model and the visible list in one linear pass.
+     */
+    private void addPackages(List<PackageItem> batch) {
+        final List<PackageItem> added = new ArrayList<>(batch.size());
+        for (PackageItem item : batch) {
+            final PackageItem existing = mAllPackages.get(item.packageName);
+            if (existing != null) {
+                existing.activityTitles.addAll(item.activityTitles);
+                indexPackage(existing);
+                continue;
+            }
+            mAllPackages.put(item.packageName, item);
+            indexPackage(item);
+            if (isShown(item)) {
+                added.add(item);
+            }
+        }
+        if (added.isEmpty()) {
+            return;
+        }
+
+        synchronized (mInstalledPackages) {
+            final List<PackageItem> current = new ArrayList<>(mInstalledPackages);
+            mInstalledPackages.clear();
+            mInstalledPackages.ensureCapacity(current.size() + added.size());
+            int i = 0, j = 0;
+            while (i < current.size() && j < added.size()) {
+                if (current.get(i).compareTo(added.get(j)) <= 0) {
+                    mInstalledPackages.add(current.get(i++));
+                } else {
+                    mInstalledPackages.add(added.get(j++));
+                }
+            }
+            while (i < current.size()) {
+                mInstalledPackages.add(current.get(i++));
+            }
+            while (j < added.size()) {
+                mInstalledPackages.add(added.get(j++));
+            }
+        }
+    }
+
+    private void indexPackage(PackageItem item) {
+        final List<CharSequence> texts = new ArrayList<>(item.activityTitles.size() + 2);
+        texts.add(item.title);
+        texts.add(item.packageName);
+        texts.addAll(item.activityTitles);
+        mSearchIndex.put(item.packageName, texts);
+    }
+
+    private boolean isShown(PackageItem item) {
+        return !mExcludedPackages.contains(item.packageName)
+                && (mFilter.isEmpty()
+                        || mSearchIndex.matches(item.packageName, mFilter, mFuzzyFilter));
+    }
+
+    private void removePackage(String packageName) {
+        mSearchIndex.remove(packageName);
+        final PackageItem item = mAllPackages.remove(packageName);
+        if (item != null) {
+            synchronized (mInstalledPackages) {
+                int index = Collections.binarySearch(mInstalledPackages, item);
+                if (index >= 0) {
+                    mInstalledPackages.remove(index);
+                }
             }
         }
     }
 
     public void setExcludedPackages(HashSet<String> packages) {
         mExcludedPackages = packages;
-        reloadList();
+        refilter();
+    }
+
+    /**
+     * Shows only packages whose title, package name or activity titles contain
+     * {@code query}, falling back to close matches if none does. An empty query
+     * shows everything.
+     */
+    public void setFilter(String query) {
+        mFilter = query != null ? query.trim() : "";
+        refilter();
+    }
+
+    private void refilter() {
+        final List<PackageItem> visible;
+        if (mFilter.isEmpty()) {
+            visible = new ArrayList<>(mAllPackages.values());
+        } else {
+            final Set<String> matches = mSearchIndex.search(mFilter);
+            // search() only falls back when nothing matches exactly
+            mFuzzyFilter = !matches.isEmpty() && !mSearchIndex.matches(
+                    matches.iterator().next(), mFilter, false);
+            visible = new ArrayList<>(matches.size());
+            for (String packageName : matches) {
+                final PackageItem item = mAllPackages.get(packageName);
+                if (item != null) {
+                    visible.add(item);
+                }
+            }
+        }
+        visible.removeIf(item -> mExcludedPackages.contains(item.packageName));
+        Collections.sort(visible);
+        synchronized (mInstalledPackages) {
+            mInstalledPackages.clear();
+            mInstalledPackages.ensureCapacity(visible.size());
+            mInstalledPackages.addAll(visible);
+        }
+        notifyDataSetChanged();
+    }
+
+    private static synchronized Handler getWorker() {
+        if (sWorker == null) {
+            sWorkerThread = new HandlerThread("PackageListAdapter");
+            sWorkerThread.start();
+            sWorker = new Handler(sWorkerThread.getLooper());
+        }
+        return sWorker;
     }
 
     private static class ViewHolder {
         TextView title;
         TextView summary;
         ImageView icon;
+        String packageName;
     }
 }
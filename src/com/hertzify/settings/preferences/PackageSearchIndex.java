@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2026 HertzifyOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hertzify.settings.preferences;
+
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * In-memory n-gram index over app titles, package names and activity titles for
+ * as-you-type filtering.
+ *
+ * Every searchable text is lowercased and split into all grams of one to three
+ * characters, each pointing at a sorted posting list of document ids. A query is
+ * answered by intersecting the posting lists of its grams, smallest first, and
+ * verifying the few candidates with a substring check. If nothing contains the
+ * query verbatim, the documents sharing most of its trigrams are returned
+ * instead, which tolerates typos. Documents are added and removed individually
+ * as packages come and go.
+ */
+public final class PackageSearchIndex {
+
+    private static final int MAX_GRAM = 3;
+
+    // Share of the query trigrams a document needs for a fuzzy match
+    private static final float FUZZY_THRESHOLD = 0.6f;
+
+    private final Map<String, PostingList> mPostings = new ArrayMap<>();
+    private final Map<String, Integer> mIds = new ArrayMap<>();
+    private final SparseArray<Document> mDocuments = new SparseArray<>();
+    private int mNextId;
+
+    private static final class Document {
+        final String packageName;
+        final String text;
+        final Set<String> grams;
+
+        Document(String packageName, String text, Set<String> grams) {
+            this.packageName = packageName;
+            this.text = text;
+            this.grams = grams;
+        }
+    }
+
+    /** A growable, sorted int array. */
+    private static final class PostingList {
+        int[] ids = new int[4];
+        int size;
+
+        void add(int id) {
+            // Ids only grow, so appending keeps the list sorted
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        void remove(int id) {
+            final int index = Arrays.binarySearch(ids, 0, size, id);
+            if (index >= 0) {
+                System.arraycopy(ids, index + 1, ids, index, size - index - 1);
+                size--;
+            }
+        }
+    }
+
+    /**
+     * Indexes {@code texts} for {@code packageName}, replacing what was there before.
+     */
+    public synchronized void put(String packageName, Iterable<? extends CharSequence> texts) {
+        remove(packageName);
+
+        final StringBuilder joined = new StringBuilder();
+        for (CharSequence text : texts) {
+            if (text != null) {
+                // The separator keeps grams from spanning two texts
+                joined.append(normalize(text)).append('\n');
+            }
+        }
+        final String text = joined.toString();
+        final Set<String> grams = new ArraySet<>();
+        for (String part : text.split("\n")) {
+            addGrams(part, grams);
+        }
+
+        final int id = mNextId++;
+        mIds.put(packageName, id);
+        mDocuments.put(id, new Document(packageName, text, grams));
+        for (String gram : grams) {
+            PostingList list = mPostings.get(gram);
+            if (list == null) {
+                list = new PostingList();
+                mPostings.put(gram, list);
+            }
+            list.add(id);
+        }
+    }
+
+    public synchronized void remove(String packageName) {
+        final Integer id = mIds.remove(packageName);
+        if (id == null) {
+            return;
+        }
+        final Document document = mDocuments.get(id);
+        mDocuments.remove(id);
+        for (String gram : document.grams) {
+            final PostingList list = mPostings.get(gram);
+            if (list != null) {
+                list.remove(id);
+                if (list.size == 0) {
+                    mPostings.remove(gram);
+                }
+            }
+        }
+    }
+
+    public synchronized void clear() {
+        mPostings.clear();
+        mIds.clear();
+        mDocuments.clear();
+    }
+
+    /**
+     * Whether {@code packageName} matches {@code query} by the rule {@link #search}
+     * used: containing it in any indexed text, or with {@code fuzzy}, sharing
+     * enough of its trigrams.
+     */
+    public synchronized boolean matches(String packageName, String query, boolean fuzzy) {
+        final Integer id = mIds.get(packageName);
+        if (id == null) {
+            return false;
+        }
+        final Document document = mDocuments.get(id);
+        final String q = normalize(query);
+        if (!fuzzy || q.length() <= MAX_GRAM) {
+            return document.text.contains(q);
+        }
+        final Set<String> queryGrams = queryGrams(q);
+        int hits = 0;
+        for (String gram : queryGrams) {
+            if (document.grams.contains(gram)) {
+                hits++;
+            }
+        }
+        return hits >= neededHits(queryGrams);
+    }
+
+    /**
+     * Returns the package names matching {@code query}, exactly if possible,
+     * otherwise fuzzily.
+     */
+    public synchronized Set<String> search(String query) {
+        final String q = normalize(query);
+        final Set<String> result = new ArraySet<>();
+        if (q.isEmpty()) {
+            return result;
+        }
+
+        // Exact: intersect the grams of the query, then verify the candidates
+        final Set<String> queryGrams = queryGrams(q);
+        final PostingList[] lists = new PostingList[queryGrams.size()];
+        int count = 0;
+        for (String gram : queryGrams) {
+            final PostingList list = mPostings.get(gram);
+            if (list == null) {
+                count = 0;
+                break;
+            }
+            lists[count++] = list;
+        }
+        if (count > 0) {
+            // Smallest first, so the candidates only shrink from there
+            Arrays.sort(lists, 0, count, (a, b) -> Integer.compare(a.size, b.size));
+            int[] candidates = Arrays.copyOf(lists[0].ids, lists[0].size);
+            for (int i = 1; i < count && candidates.length > 0; i++) {
+                candidates = intersect(candidates, lists[i]);
+            }
+            for (int id : candidates) {
+                final Document document = mDocuments.get(id);
+                if (document.text.contains(q)) {
+                    result.add(document.packageName);
+                }
+            }
+        }
+        if (!result.isEmpty() || q.length() <= MAX_GRAM) {
+            return result;
+        }
+
+        // Fuzzy: count shared trigrams per document
+        final SparseIntArray hits = new SparseIntArray();
+        for (String gram : queryGrams) {
+            final PostingList list = mPostings.get(gram);
+            if (list == null) {
+                continue;
+            }
+            for (int i = 0; i < list.size; i++) {
+                hits.put(list.ids[i], hits.get(list.ids[i]) + 1);
+            }
+        }
+        final int needed = neededHits(queryGrams);
+        for (int i = 0; i < hits.size(); i++) {
+            if (hits.valueAt(i) >= needed) {
+                result.add(mDocuments.get(hits.keyAt(i)).packageName);
+            }
+        }
+        return result;
+    }
+
+    /** Returns the ids present in both sorted {@code ids} and {@code list}. */
+    private static int[] intersect(int[] ids, PostingList list) {
+        final int[] result = new int[Math.min(ids.length, list.size)];
+        int size = 0;
+        for (int i = 0, j = 0; i < ids.length && j < list.size; ) {
+            if (ids[i] < list.ids[j]) {
+                i++;
+            } else if (ids[i] > list.ids[j]) {
+                j++;
+            } else {
+                result[size++] = ids[i];
+                i++;
+                j++;
+            }
+        }
+        return Arrays.copyOf(result, size);
+    }
+
+    /** The query itself if it is a single gram, otherwise its trigrams. */
+    private static Set<String> queryGrams(String q) {
+        final Set<String> grams = new ArraySet<>();
+        if (q.length() <= MAX_GRAM) {
+            grams.add(q);
+        } else {
+            for (int i = 0; i + MAX_GRAM <= q.length(); i++) {
+                grams.add(q.substring(i, i + MAX_GRAM));
+            }
+        }
+        return grams;
+    }
+
+    private static int neededHits(Set<String> queryGrams) {
+        return (int) Math.ceil(queryGrams.size() * FUZZY_THRESHOLD);
+    }
+
+    private static void addGrams(String text, Set<String> grams) {
+        for (int n = 1; n <= MAX_GRAM; n++) {
+            for (int i = 0; i + n <= text.length(); i++) {
+                grams.add(text.substring(i, i + n));
+            }
+        }
+    }
+
+    private static String normalize(CharSequence text) {
+        return text.toString().trim().toLowerCase(Locale.ROOT);
+    }
+}
@@ -0,0 +1,360 @@
+/*
+ * Copyright (C) 2026 HertzifyOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hertzify.settings.preferences;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.ResolveInfo;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.UserHandle;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Process-wide snapshot of what PackageManager knows about installed packages,
+ * kept per user so every screen that enumerates apps or checks for a package
+ * shares one set of queries.
+ *
+ * Single package lookups are cached one by one; the full package list and the
+ * launcher activities are only enumerated when somebody asks for them, once per
+ * user. Afterwards the snapshot follows package broadcasts for all users,
+ * re-querying just the package that changed, and bumps a generation number so
+ * callers can tell whether anything they derived from it is out of date.
+ *
+ * PackageManager is never queried under the lock of a user. Results are swapped
+ * in afterwards, and only if the generation did not move meanwhile; otherwise
+ * the caller gets what it queried and the snapshot stays as it was.
+ */
+public final class PackageSnapshot {
+
+    private static final String TAG = PackageSnapshot.class.getSimpleName();
+
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.VERBOSE);
+
+    // Disabled packages are still installed, callers decide whether they count
+    private static final int PACKAGE_FLAGS = PackageManager.MATCH_DISABLED_COMPONENTS;
+
+    private static PackageSnapshot sInstance;
+
+    private final Context mContext;
+    private final PackageManager mPm;
+    private final Handler mHandler;
+
+    private final SparseArray<UserState> mUsers = new SparseArray<>();
+    private final Set<OnPackageChangedListener> mListeners = new ArraySet<>();
+
+    public interface OnPackageChangedListener {
+        /** Called on the snapshot thread, after the snapshot was updated. */
+        public void onPackageChanged(String packageName, int userId);
+    }
+
+    /** Everything known about one user, guarded by itself. */
+    private static final class UserState {
+        long generation;
+        // Looked up packages; a null value means the package is not installed
+        final Map<String, PackageInfo> packages = new ArrayMap<>();
+        boolean allPackagesLoaded;
+        // Launcher activities by package, null until first asked for
+        Map<String, List<ResolveInfo>> launcherActivities;
+    }
+
+    private PackageSnapshot(Context context) {
+        mContext = context;
+        mPm = context.getPackageManager();
+        HandlerThread thread = new HandlerThread(TAG);
+        thread.start();
+        mHandler = new Handler(thread.getLooper());
+
+        IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addDataScheme("package");
+        mContext.registerReceiverForAllUsers(mPackageReceiver, filter, null, mHandler);
+    }
+
+    public synchronized static PackageSnapshot get(Context context) {
+        if (sInstance == null) {
+            sInstance = new PackageSnapshot(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    public void addListener(OnPackageChangedListener listener) {
+        synchronized (mListeners) {
+            mListeners.add(listener);
+        }
+    }
+
+    public void removeListener(OnPackageChangedListener listener) {
+        synchronized (mListeners) {
+            mListeners.remove(listener);
+        }
+    }
+
+    /**
+     * Returns a number that changes whenever a package of {@code userId} changes.
+     */
+    public long getGeneration(int userId) {
+        final UserState state = getState(userId);
+        synchronized (state) {
+            return state.generation;
+        }
+    }
+
+    /**
+     * Returns the package info of {@code packageName} for {@code userId}, or null if
+     * it is not installed. Disabled packages are included.
+     */
+    public PackageInfo getPackageInfo(String packageName, int userId) {
+        final UserState state = getState(userId);
+        final long generation;
+        synchronized (state) {
+            if (state.packages.containsKey(packageName) || state.allPackagesLoaded) {
+                return state.packages.get(packageName);
+            }
+            generation = state.generation;
+        }
+        final PackageInfo info = queryPackage(packageName, userId);
+        synchronized (state) {
+            if (state.generation == generation && !state.allPackagesLoaded) {
+                state.packages.put(packageName, info);
+            }
+        }
+        return info;
+    }
+
+    public boolean isPackageInstalled(String packageName, int userId, boolean ignoreState) {
+        final PackageInfo info = getPackageInfo(packageName, userId);
+        return info != null && (ignoreState || info.applicationInfo.enabled);
+    }
+
+    /** Returns every package installed for {@code userId}, enumerating them once. */
+    public List<PackageInfo> getInstalledPackages(int userId) {
+        final UserState state = getState(userId);
+        final long generation;
+        synchronized (state) {
+            if (state.allPackagesLoaded) {
+                return collectPackages(state);
+            }
+            generation = state.generation;
+        }
+        if (DEBUG) Log.d(TAG, "Enumerating packages of user " + userId);
+        final List<PackageInfo> infos = mPm.getInstalledPackagesAsUser(PACKAGE_FLAGS, userId);
+        synchronized (state) {
+            if (state.allPackagesLoaded) {
+                return collectPackages(state);
+            }
+            if (state.generation != generation) {
+                return infos;
+            }
+            state.packages.clear();
+            for (PackageInfo info : infos) {
+                state.packages.put(info.packageName, info);
+            }
+            state.allPackagesLoaded = true;
+            return collectPackages(state);
+        }
+    }
+
+    private static List<PackageInfo> collectPackages(UserState state) {
+        final List<PackageInfo> result = new ArrayList<>(state.packages.size());
+        for (PackageInfo info : state.packages.values()) {
+            if (info != null) {
+                result.add(info);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns the launcher activities of {@code userId}, enumerating them once.
+     */
+    public List<ResolveInfo> getLauncherActivities(int userId) {
+        final Map<String, List<ResolveInfo>> activities =
+                loadLauncherActivities(getState(userId), userId);
+        final List<ResolveInfo> result = new ArrayList<>();
+        for (List<ResolveInfo> list : activities.values()) {
+            result.addAll(list);
+        }
+        return result;
+    }
+
+    /** Returns the launcher activities of a single package. */
+    public List<ResolveInfo> getLauncherActivities(String packageName, int userId) {
+        final List<ResolveInfo> list =
+                loadLauncherActivities(getState(userId), userId).get(packageName);
+        return list != null ? new ArrayList<>(list) : Collections.emptyList();
+    }
+
+    /**
+     * Returns a copy of the launcher activities of {@code state}, enumerating them
+     * the first time.
+     */
+    private Map<String, List<ResolveInfo>> loadLauncherActivities(UserState state, int userId) {
+        final long generation;
+        synchronized (state) {
+            if (state.launcherActivities != null) {
+                return copyLauncherActivities(state.launcherActivities);
+            }
+            generation = state.generation;
+        }
+        if (DEBUG) Log.d(TAG, "Enumerating launcher activities of user " + userId);
+        final Map<String, List<ResolveInfo>> activities = new ArrayMap<>();
+        for (ResolveInfo info : mPm.queryIntentActivitiesAsUser(
+                launcherIntent(null), 0, userId)) {
+            addLauncherActivity(activities, info);
+        }
+        synchronized (state) {
+            if (state.launcherActivities != null) {
+                return copyLauncherActivities(state.launcherActivities);
+            }
+            if (state.generation == generation) {
+                state.launcherActivities = activities;
+                return copyLauncherActivities(activities);
+            }
+            return activities;
+        }
+    }
+
+    private static Map<String, List<ResolveInfo>> copyLauncherActivities(
+            Map<String, List<ResolveInfo>> activities) {
+        final Map<String, List<ResolveInfo>> copy = new ArrayMap<>(activities.size());
+        for (Map.Entry<String, List<ResolveInfo>> entry : activities.entrySet()) {
+            copy.put(entry.getKey(), new ArrayList<>(entry.getValue()));
+        }
+        return copy;
+    }
+
+    private static void addLauncherActivity(Map<String, List<ResolveInfo>> map, ResolveInfo info) {
+        final String packageName = info.activityInfo.packageName;
+        List<ResolveInfo> list = map.get(packageName);
+        if (list == null) {
+            list = new ArrayList<>(1);
+            map.put(packageName, list);
+        }
+        list.add(info);
+    }
+
+    private UserState getState(int userId) {
+        if (userId == UserHandle.USER_CURRENT) {
+            userId = UserHandle.myUserId();
+        }
+        synchronized (mUsers) {
+            UserState state = mUsers.get(userId);
+            if (state == null) {
+                state = new UserState();
+                mUsers.put(userId, state);
+            }
+            return state;
+        }
+    }
+
+    private PackageInfo queryPackage(String packageName, int userId) {
+        try {
+            return mPm.getPackageInfoAsUser(packageName, PACKAGE_FLAGS, userId);
+        } catch (PackageManager.NameNotFoundException e) {
+            return null;
+        }
+    }
+
+    private static Intent launcherIntent(String packageName) {
+        final Intent intent = new Intent(Intent.ACTION_MAIN, null);
+        intent.addCategory(Intent.CATEGORY_LAUNCHER);
+        intent.setPackage(packageName);
+        return intent;
+    }
+
+    /**
+     * Brings the snapshot of {@code userId} up to date for one package. Runs on
+     * the snapshot thread.
+     */
+    private void updatePackage(String packageName, int userId) {
+        final UserState state = getState(userId);
+        final boolean packageKnown;
+        final boolean activitiesLoaded;
+        synchronized (state) {
+            packageKnown = state.allPackagesLoaded || state.packages.containsKey(packageName);
+            activitiesLoaded = state.launcherActivities != null;
+        }
+        // Queried unless nothing is cached; an enumeration racing with this one
+        // sees the generation move and is not kept
+        final PackageInfo info = packageKnown ? queryPackage(packageName, userId) : null;
+        final List<ResolveInfo> activities = activitiesLoaded
+                ? mPm.queryIntentActivitiesAsUser(launcherIntent(packageName), 0, userId)
+                : null;
+        synchronized (state) {
+            if (packageKnown) {
+                state.packages.put(packageName, info);
+            } else if (state.allPackagesLoaded || state.packages.containsKey(packageName)) {
+                // Loaded meanwhile, possibly from before the change; ask again next time
+                state.packages.remove(packageName);
+                state.allPackagesLoaded = false;
+            }
+            if (activities != null) {
+                state.launcherActivities.remove(packageName);
+                for (ResolveInfo activity : activities) {
+                    addLauncherActivity(state.launcherActivities, activity);
+                }
+            } else {
+                state.launcherActivities = null;
+            }
+            state.generation++;
+        }
+
+        final OnPackageChangedListener[] listeners;
+        synchronized (mListeners) {
+            listeners = mListeners.toArray(new OnPackageChangedListener[mListeners.size()]);
+        }
+        for (OnPackageChangedListener listener : listeners) {
+            listener.onPackageChanged(packageName, userId);
+        }
+    }
+
+    private final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final Uri data = intent.getData();
+            final String packageName = data != null ? data.getSchemeSpecificPart() : null;
+            if (packageName == null) {
+                return;
+            }
+            if (Intent.ACTION_PACKAGE_REMOVED.equals(intent.getAction())
+                    && intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                // An ACTION_PACKAGE_ADDED follows for the new version
+                return;
+            }
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, -1);
+            final int userId = uid >= 0 ? UserHandle.getUserId(uid) : getSendingUserId();
+            if (DEBUG) Log.d(TAG, intent.getAction() + ": " + packageName + " user " + userId);
+            updatePackage(packageName, userId);
+        }
+    };
+}
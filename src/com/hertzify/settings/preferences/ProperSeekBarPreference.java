@@ -43,6 +43,7 @@ public class ProperSeekBarPreference extends Preference implements SeekBar.OnSee
     protected boolean mShowSign = false;
     protected String mUnits = "";
     protected boolean mContinuousUpdates = false;
+    protected boolean mCoalesceWrites = false;
 
     protected int mMinValue = 0;
     protected int mMaxValue = 100;
@@ -70,6 +71,7 @@ public class ProperSeekBarPreference extends Preference implements SeekBar.OnSee
             if (units != null)
                 mUnits = " " + units;
             mContinuousUpdates = a.getBoolean(R.styleable.ProperSeekBarPreference_continuousUpdates, mContinuousUpdates);
+            mCoalesceWrites = a.getBoolean(R.styleable.ProperSeekBarPreference_coalesceWrites, mCoalesceWrites);
         } finally {
             a.recycle();
         }
@@ -112,6 +114,25 @@ public class ProperSeekBarPreference extends Preference implements SeekBar.OnSee
         this(context, null);
     }
 
+    @Override
+    public void setPreferenceDataStore(PreferenceDataStore dataStore) {
+        super.setPreferenceDataStore(dataStore);
+        if (mCoalesceWrites && dataStore instanceof CoalescingDataStore)
+            ((CoalescingDataStore) dataStore).setCoalescingEnabled(true);
+    }
+
+    @Override
+    public void onDetached() {
+        flushPendingWrites();
+        super.onDetached();
+    }
+
+    protected void flushPendingWrites() {
+        PreferenceDataStore dataStore = getPreferenceDataStore();
+        if (dataStore instanceof CoalescingDataStore)
+            ((CoalescingDataStore) dataStore).flush();
+    }
+
     @Override
     public void onBindViewHolder(PreferenceViewHolder holder) {
         super.onBindViewHolder(holder);
@@ -237,6 +258,7 @@ public class ProperSeekBarPreference extends Preference implements SeekBar.OnSee
         mTrackingTouch = false;
         if (!mContinuousUpdates)
             onProgressChanged(mSeekBar, getSeekValue(mTrackingValue), false);
+        flushPendingWrites();
         notifyChanged();
     }
 
@@ -48,7 +48,9 @@ import java.util.Objects;
  * Uri. The RemotePreference listens while attached, and performs
  * an ordered broadcast with ACTION_UPDATE_PREFERENCE back to
  * the application, which is then returned to the preference after
- * being filled with new data.
+ * being filled with new data. When several keys are served by the
+ * same receiver, they are requested together in EXTRA_KEYS and the
+ * result carries one bundle per key.
  *
  * The external activity should include the META_REMOTE_RECEIVER
  * and (optionally) the META_REMOTE_KEY strings in it's metadata.
@@ -78,6 +80,7 @@ public class RemotePreference extends SelfRemovingPreference
 
     public static final String EXTRA_ENABLED = ":lineage:pref_enabled";
     public static final String EXTRA_KEY = ":lineage:pref_key";
+    public static final String EXTRA_KEYS = ":lineage:pref_keys";
     public static final String EXTRA_SUMMARY = ":lineage:pref_summary";
 
     protected final Context mContext;
@@ -117,6 +120,12 @@ public class RemotePreference extends SelfRemovingPreference
     public void onAttached() {
         super.onAttached();
         if (isAvailable()) {
+            // Render the last known summary right away, the live one replaces it
+            // once the round-trip completes.
+            final Bundle cached = RemoteSummaryCache.get(mContext).get(getKey());
+            if (cached != null) {
+                setSummary(cached.getString(EXTRA_SUMMARY));
+            }
             RemotePreferenceManager.get(mContext).attach(getKey(), this);
         }
     }
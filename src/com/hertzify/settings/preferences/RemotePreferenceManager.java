@@ -17,6 +17,7 @@ package com.hertzify.settings.preferences;
 
 import android.app.Activity;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
@@ -24,11 +25,16 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.HandlerThread;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.os.UserHandle;
 import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.Objects;
 import java.util.Set;
@@ -36,6 +42,7 @@ import java.util.Set;
 import static com.hertzify.settings.preferences.RemotePreference.ACTION_REFRESH_PREFERENCE;
 import static com.hertzify.settings.preferences.RemotePreference.ACTION_UPDATE_PREFERENCE;
 import static com.hertzify.settings.preferences.RemotePreference.EXTRA_KEY;
+import static com.hertzify.settings.preferences.RemotePreference.EXTRA_KEYS;
 
 /**
  * Manages attaching and detaching of RemotePreferences and optimizes callbacks
@@ -56,6 +63,16 @@ public class RemotePreferenceManager {
     private final Map<String, Intent> mCache = new ArrayMap<>();
     private final Map<String, Set<OnRemoteUpdateListener>> mCallbacks = new ArrayMap<>();
 
+    // Request bookkeeping, guarded by itself. Keys wait in mPending until the next
+    // flush, stay in mInFlight until their result arrives, and are re-requested once
+    // if another update was asked for meanwhile (mDirty).
+    private final Set<String> mPending = new ArraySet<>();
+    private final Set<String> mInFlight = new ArraySet<>();
+    private final Set<String> mDirty = new ArraySet<>();
+    private final Set<ComponentName> mSingleKeyReceivers = new ArraySet<>();
+    private final Map<String, Long> mRequestTimes = new ArrayMap<>();
+    private boolean mFlushScheduled;
+
     private final Handler mMainHandler = new Handler(Looper.getMainLooper());
 
     private Handler mHandler;
@@ -119,22 +136,201 @@ public class RemotePreferenceManager {
                     mThread = null;
                 }
                 mHandler = null;
+                // Results still outstanding die with the thread
+                synchronized (mPending) {
+                    mInFlight.clear();
+                    mDirty.clear();
+                    mRequestTimes.clear();
+                }
             }
         }
     }
 
     private void requestUpdate(String key) {
-        synchronized (mCache) {
-            Intent i = mCache.get(key);
-            if (i == null) {
+        synchronized (mPending) {
+            if (mInFlight.contains(key)) {
+                mDirty.add(key);
                 return;
             }
+            if (mPending.add(key) && !mFlushScheduled) {
+                // Let every attach of the current pass queue up before sending
+                mFlushScheduled = true;
+                mMainHandler.post(mFlushRequests);
+            }
+        }
+    }
+
+    private final Runnable mFlushRequests = new Runnable() {
+        @Override
+        public void run() {
+            final String[] keys;
+            synchronized (mPending) {
+                mFlushScheduled = false;
+                keys = mPending.toArray(new String[mPending.size()]);
+                mPending.clear();
+                mInFlight.addAll(Arrays.asList(keys));
+            }
+
+            // One ordered broadcast per receiver, carrying all of its keys
+            final Map<ComponentName, List<String>> byReceiver = new ArrayMap<>();
+            synchronized (mCache) {
+                for (String key : keys) {
+                    final Intent i = mCache.get(key);
+                    if (i == null) {
+                        onRequestDone(key);
+                        continue;
+                    }
+                    List<String> group = byReceiver.get(i.getComponent());
+                    if (group == null) {
+                        group = new ArrayList<>();
+                        byReceiver.put(i.getComponent(), group);
+                    }
+                    group.add(key);
+                }
+            }
+
+            for (Map.Entry<ComponentName, List<String>> entry : byReceiver.entrySet()) {
+                final List<String> group = entry.getValue();
+                final boolean batch;
+                synchronized (mPending) {
+                    batch = group.size() > 1 && !mSingleKeyReceivers.contains(entry.getKey());
+                }
+                if (batch) {
+                    sendRequest(entry.getKey(), group.toArray(new String[group.size()]));
+                } else {
+                    for (String key : group) {
+                        sendRequest(entry.getKey(), new String[] { key });
+                    }
+                }
+            }
+        }
+    };
+
+    private void sendRequest(ComponentName receiver, String[] keys) {
+        final Intent i = new Intent(ACTION_UPDATE_PREFERENCE);
+        i.setComponent(receiver);
+        // EXTRA_KEY keeps single-key updaters working, they just answer the first key
+        i.putExtra(EXTRA_KEY, keys[0]);
+        if (keys.length > 1) {
+            i.putExtra(EXTRA_KEYS, keys);
+        }
+        synchronized (mCallbacks) {
+            if (mHandler == null) {
+                for (String key : keys) {
+                    onRequestDone(key);
+                }
+                return;
+            }
+            if (DEBUG) Log.d(TAG, "sendRequest: receiver=" + receiver
+                    + " keys=" + Arrays.toString(keys));
+            final long now = SystemClock.elapsedRealtime();
+            synchronized (mPending) {
+                for (String key : keys) {
+                    mRequestTimes.put(key, now);
+                }
+            }
             mContext.sendOrderedBroadcastAsUser(i, UserHandle.CURRENT,
                     "lineageos.permission.MANAGE_REMOTE_PREFERENCES",
                     mListener, mHandler, Activity.RESULT_OK, null, null);
         }
     }
 
+    private void onRequestDone(String key) {
+        final boolean again;
+        synchronized (mPending) {
+            mInFlight.remove(key);
+            again = mDirty.remove(key);
+        }
+        if (again) {
+            synchronized (mCallbacks) {
+                if (mCallbacks.containsKey(key)) {
+                    requestUpdate(key);
+                }
+            }
+        }
+    }
+
+    private void onUpdateResult(Intent request, boolean aborted, Bundle result) {
+        final String[] batchKeys = request.getStringArrayExtra(EXTRA_KEYS);
+        final String[] requested = batchKeys != null
+                ? batchKeys : new String[] { request.getStringExtra(EXTRA_KEY) };
+        final Set<String> answered = new ArraySet<>();
+
+        if (!aborted) {
+            final String[] resultKeys = result.getStringArray(EXTRA_KEYS);
+            if (resultKeys != null) {
+                for (String key : resultKeys) {
+                    final Bundle bundle = result.getBundle(key);
+                    if (key != null && bundle != null) {
+                        dispatchUpdate(key, bundle);
+                        answered.add(key);
+                        cacheUpdate(key, bundle);
+                    }
+                }
+            } else {
+                final String key = result.getString(EXTRA_KEY);
+                if (key != null) {
+                    dispatchUpdate(key, result);
+                    answered.add(key);
+                    cacheUpdate(key, result);
+                }
+            }
+        }
+
+        final boolean singleKeyReceiver = batchKeys != null
+                && (aborted || result.getStringArray(EXTRA_KEYS) == null);
+        if (singleKeyReceiver) {
+            // The receiver predates batching, ask it again one key at a time
+            synchronized (mPending) {
+                mSingleKeyReceivers.add(request.getComponent());
+            }
+        }
+
+        for (String key : requested) {
+            if (key == null) {
+                continue;
+            }
+            if (singleKeyReceiver && !answered.contains(key)) {
+                synchronized (mPending) {
+                    mDirty.add(key);
+                }
+            }
+            onRequestDone(key);
+        }
+    }
+
+    private void cacheUpdate(String key, Bundle bundle) {
+        final Long sent;
+        synchronized (mPending) {
+            sent = mRequestTimes.remove(key);
+        }
+        final long latency = sent != null ? SystemClock.elapsedRealtime() - sent : -1;
+        if (DEBUG) Log.d(TAG, "cacheUpdate: key=" + key + " latency=" + latency + "ms");
+        RemoteSummaryCache.get(mContext).put(key, bundle, latency);
+    }
+
+    private void dispatchUpdate(final String key, final Bundle bundle) {
+        synchronized (mCallbacks) {
+            if (key != null && mCallbacks.containsKey(key)) {
+                mMainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (mCallbacks) {
+                            if (mCallbacks.containsKey(key)) {
+                                Set<OnRemoteUpdateListener> cbs = mCallbacks.get(key);
+                                if (cbs != null) {
+                                    for (OnRemoteUpdateListener cb : cbs) {
+                                        cb.onRemoteUpdated(bundle);
+                                    }
+                                }
+                            }
+                        }
+                    }
+                });
+            }
+        }
+    }
+
     private final BroadcastReceiver mListener = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -148,31 +344,11 @@ public class RemotePreferenceManager {
                     }
                 }
             } else if (ACTION_UPDATE_PREFERENCE.equals(intent.getAction())) {
-                if (getAbortBroadcast()) {
+                final boolean aborted = getAbortBroadcast();
+                if (aborted) {
                     Log.e(TAG, "Broadcast aborted, code=" + getResultCode());
-                    return;
-                }
-                final Bundle bundle = getResultExtras(true);
-                final String key = bundle.getString(EXTRA_KEY);
-                synchronized (mCallbacks) {
-                    if (key != null && mCallbacks.containsKey(key)) {
-                        mMainHandler.post(new Runnable() {
-                            @Override
-                            public void run() {
-                                synchronized (mCallbacks) {
-                                    if (mCallbacks.containsKey(key)) {
-                                        Set<OnRemoteUpdateListener> cbs = mCallbacks.get(key);
-                                        if (cbs != null) {
-                                            for (OnRemoteUpdateListener cb : cbs) {
-                                                cb.onRemoteUpdated(bundle);
-                                            }
-                                        }
-                                    }
-                                }
-                            }
-                        });
-                    }
                 }
+                onUpdateResult(intent, aborted, getResultExtras(true));
             }
         }
     };
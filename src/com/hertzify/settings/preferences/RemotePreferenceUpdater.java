@@ -23,6 +23,8 @@ import android.os.Bundle;
 import android.os.UserHandle;
 import android.util.Log;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Objects;
 
 /**
@@ -86,6 +88,29 @@ public class RemotePreferenceUpdater extends BroadcastReceiver {
     }
 
 
+    /**
+     * Answer a batched request: every key that could be filled gets its own
+     * bundle in the result, and EXTRA_KEYS lists the keys that were filled.
+     */
+    private void fillBatchResultExtras(Context context, String[] keys, Bundle result) {
+        final ArrayList<String> filled = new ArrayList<>(keys.length);
+        for (String key : keys) {
+            if (key == null) {
+                continue;
+            }
+            final Bundle extras = new Bundle();
+            if (fillResultExtras(context, key, extras)) {
+                result.putBundle(key, extras);
+                filled.add(key);
+            }
+        }
+        result.putStringArray(RemotePreference.EXTRA_KEYS,
+                filled.toArray(new String[filled.size()]));
+
+        if (DEBUG) Log.d(TAG, "onReceive batch keys=" + Arrays.toString(keys) +
+                   " filled=" + filled);
+    }
+
     /**
      * @hide
      */
@@ -93,6 +118,13 @@ public class RemotePreferenceUpdater extends BroadcastReceiver {
     public void onReceive(Context context, Intent intent) {
         if (isOrderedBroadcast() &&
                 RemotePreference.ACTION_UPDATE_PREFERENCE.equals(intent.getAction())) {
+            final String[] keys = intent.getStringArrayExtra(RemotePreference.EXTRA_KEYS);
+            if (keys != null) {
+                fillBatchResultExtras(context, keys, getResultExtras(true));
+                setResultCode(Activity.RESULT_OK);
+                return;
+            }
+
             final String key = intent.getStringExtra(RemotePreference.EXTRA_KEY);
             if (DEBUG) Log.d(TAG, "onReceive key=" +key +
                        " intent=" + Objects.toString(intent) +
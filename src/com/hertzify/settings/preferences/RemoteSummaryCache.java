@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2026 HertzifyOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hertzify.settings.preferences;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.android.settingslib.utils.ThreadUtils;
+
+import java.util.Map;
+
+import static com.hertzify.settings.preferences.RemotePreference.EXTRA_KEY;
+import static com.hertzify.settings.preferences.RemotePreference.EXTRA_SUMMARY;
+
+/**
+ * Disk-backed cache of the last summary each RemotePreference received, so it
+ * can be shown as soon as the preference attaches instead of after the
+ * broadcast round-trip. Entries expire after a week and the cache keeps at
+ * most {@link #MAX_ENTRIES} keys, evicting the least recently updated.
+ *
+ * Per key it also records when the summary was received and how long the
+ * round-trip took, for diagnosing slow updaters.
+ *
+ * The file is loaded on a background thread when the cache is created. Until
+ * then {@link #get(String)} returns null rather than block the main thread.
+ */
+public final class RemoteSummaryCache {
+
+    private static final String TAG = RemoteSummaryCache.class.getSimpleName();
+
+    private static final boolean DEBUG = Log.isLoggable(
+            RemotePreference.class.getSimpleName(), Log.VERBOSE);
+
+    private static final String PREFS_NAME = "remote_preference_summaries";
+
+    private static final String SUFFIX_SUMMARY = ":summary";
+    private static final String SUFFIX_TIME = ":time";
+    private static final String SUFFIX_LATENCY = ":latency";
+
+    private static final long TTL_MS = 7L * 24 * 60 * 60 * 1000;
+    private static final int MAX_ENTRIES = 64;
+
+    private static RemoteSummaryCache sInstance;
+
+    private final SharedPreferences mPrefs;
+
+    private volatile boolean mLoaded;
+    // Number of cached keys, -1 until counted. Guarded by this.
+    private int mCount = -1;
+
+    private RemoteSummaryCache(Context context) {
+        mPrefs = context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        ThreadUtils.postOnBackgroundThread(() -> {
+            synchronized (this) {
+                if (mCount < 0) {
+                    mCount = countEntries();
+                }
+            }
+            mLoaded = true;
+        });
+    }
+
+    public synchronized static RemoteSummaryCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new RemoteSummaryCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the last known update for {@code key} in the same shape as an
+     * onRemoteUpdated bundle, or null if there is none, it expired or the cache
+     * is still loading.
+     */
+    public Bundle get(String key) {
+        if (!mLoaded) {
+            return null;
+        }
+        final String summary = mPrefs.getString(key + SUFFIX_SUMMARY, null);
+        final long staleness = getStalenessMs(key);
+        if (summary == null || staleness < 0 || staleness > TTL_MS) {
+            return null;
+        }
+        if (DEBUG) Log.d(TAG, "get: key=" + key + " staleness=" + staleness + "ms"
+                + " latency=" + getLatencyMs(key) + "ms");
+
+        final Bundle bundle = new Bundle();
+        bundle.putString(EXTRA_KEY, key);
+        bundle.putString(EXTRA_SUMMARY, summary);
+        return bundle;
+    }
+
+    public synchronized void put(String key, Bundle bundle, long latencyMs) {
+        final String summary = bundle.getString(EXTRA_SUMMARY);
+        if (key == null || summary == null) {
+            return;
+        }
+        if (mCount < 0) {
+            mCount = countEntries();
+        }
+        if (!mPrefs.contains(key + SUFFIX_TIME)) {
+            mCount++;
+        }
+        final SharedPreferences.Editor editor = mPrefs.edit()
+                .putString(key + SUFFIX_SUMMARY, summary)
+                .putLong(key + SUFFIX_TIME, System.currentTimeMillis())
+                .putLong(key + SUFFIX_LATENCY, latencyMs);
+        if (mCount > MAX_ENTRIES) {
+            trim(editor, key);
+        }
+        editor.apply();
+    }
+
+    /** Milliseconds since the cached summary for {@code key} was received, or -1. */
+    public long getStalenessMs(String key) {
+        final long time = mPrefs.getLong(key + SUFFIX_TIME, -1);
+        return time < 0 ? -1 : System.currentTimeMillis() - time;
+    }
+
+    /** Round-trip time of the last update for {@code key}, or -1. */
+    public long getLatencyMs(String key) {
+        return mPrefs.getLong(key + SUFFIX_LATENCY, -1);
+    }
+
+    /**
+     * Drops expired entries and, if still over budget, the oldest one, never
+     * touching {@code keep}. Only called once the cache is over budget.
+     */
+    private void trim(SharedPreferences.Editor editor, String keep) {
+        final long now = System.currentTimeMillis();
+        int count = 1;
+        String oldestKey = null;
+        long oldestTime = Long.MAX_VALUE;
+        for (Map.Entry<String, ?> entry : mPrefs.getAll().entrySet()) {
+            final String name = entry.getKey();
+            if (!name.endsWith(SUFFIX_TIME) || !(entry.getValue() instanceof Long)) {
+                continue;
+            }
+            final String key = name.substring(0, name.length() - SUFFIX_TIME.length());
+            if (key.equals(keep)) {
+                continue;
+            }
+            final long time = (Long) entry.getValue();
+            if (now - time > TTL_MS) {
+                remove(editor, key);
+                continue;
+            }
+            count++;
+            if (time < oldestTime) {
+                oldestTime = time;
+                oldestKey = key;
+            }
+        }
+        if (count > MAX_ENTRIES && oldestKey != null) {
+            remove(editor, oldestKey);
+            count--;
+        }
+        mCount = count;
+    }
+
+    private int countEntries() {
+        int count = 0;
+        for (String name : mPrefs.getAll().keySet()) {
+            if (name.endsWith(SUFFIX_TIME)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static void remove(SharedPreferences.Editor editor, String key) {
+        editor.remove(key + SUFFIX_SUMMARY)
+                .remove(key + SUFFIX_TIME)
+                .remove(key + SUFFIX_LATENCY);
+    }
+}
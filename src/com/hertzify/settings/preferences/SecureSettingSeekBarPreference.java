@@ -22,11 +22,11 @@ public class SecureSettingSeekBarPreference extends CustomSeekBarPreference {
 
     public SecureSettingSeekBarPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
-        setPreferenceDataStore(new SecureSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SecureSettingsStore(context));
     }
 
     public SecureSettingSeekBarPreference(Context context) {
         super(context, null);
-        setPreferenceDataStore(new SecureSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SecureSettingsStore(context));
     }
 }
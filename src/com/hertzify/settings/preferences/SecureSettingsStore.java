@@ -16,37 +16,57 @@
 package com.hertzify.settings.preferences;
 
 import android.content.ContentResolver;
+import android.content.Context;
 import android.preference.PreferenceDataStore;
 import android.os.UserHandle;
 import android.provider.Settings;
 
 public class SecureSettingsStore extends androidx.preference.PreferenceDataStore
-        implements PreferenceDataStore {
+        implements PreferenceDataStore, CoalescingDataStore {
 
     private ContentResolver mContentResolver;
+    private SettingsCache mCache;
+    private final SettingsWriteCoalescer mWriter = new SettingsWriteCoalescer();
 
-    public SecureSettingsStore(ContentResolver contentResolver) {
-        mContentResolver = contentResolver;
+    public SecureSettingsStore(Context context) {
+        mContentResolver = context.getContentResolver();
+        mCache = SettingsCache.get(context);
+    }
+
+    @Override
+    public void setCoalescingEnabled(boolean enabled) {
+        mWriter.setEnabled(enabled);
+    }
+
+    @Override
+    public void flush() {
+        mWriter.flush();
     }
 
     public boolean getBoolean(String key, boolean defValue) {
-        return Settings.Secure.getIntForUser(mContentResolver, key, defValue ? 1 : 0, UserHandle.USER_CURRENT) != 0;
+        mWriter.flush(key);
+        return mCache.getInt(SettingsCache.NAMESPACE_SECURE, key, defValue ? 1 : 0,
+                UserHandle.USER_CURRENT) != 0;
     }
 
     public float getFloat(String key, float defValue) {
-        return Settings.Secure.getFloatForUser(mContentResolver, key, defValue, UserHandle.USER_CURRENT);
+        mWriter.flush(key);
+        return mCache.getFloat(SettingsCache.NAMESPACE_SECURE, key, defValue, UserHandle.USER_CURRENT);
     }
 
     public int getInt(String key, int defValue) {
-        return Settings.Secure.getIntForUser(mContentResolver, key, defValue, UserHandle.USER_CURRENT);
+        mWriter.flush(key);
+        return mCache.getInt(SettingsCache.NAMESPACE_SECURE, key, defValue, UserHandle.USER_CURRENT);
     }
 
     public long getLong(String key, long defValue) {
-        return Settings.Secure.getLongForUser(mContentResolver, key, defValue, UserHandle.USER_CURRENT);
+        mWriter.flush(key);
+        return mCache.getLong(SettingsCache.NAMESPACE_SECURE, key, defValue, UserHandle.USER_CURRENT);
     }
 
     public String getString(String key, String defValue) {
-        String result = Settings.Secure.getString(mContentResolver, key);
+        mWriter.flush(key);
+        String result = mCache.getString(SettingsCache.NAMESPACE_SECURE, key, UserHandle.myUserId());
         return result == null ? defValue : result;
     }
 
@@ -55,18 +75,30 @@ public class SecureSettingsStore extends androidx.preference.PreferenceDataStore
     }
 
     public void putFloat(String key, float value) {
-        Settings.Secure.putFloatForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+        mWriter.write(key, () -> {
+            Settings.Secure.putFloatForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+            mCache.invalidate(SettingsCache.NAMESPACE_SECURE, key);
+        });
     }
 
     public void putInt(String key, int value) {
-        Settings.Secure.putIntForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+        mWriter.write(key, () -> {
+            Settings.Secure.putIntForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+            mCache.invalidate(SettingsCache.NAMESPACE_SECURE, key);
+        });
     }
 
     public void putLong(String key, long value) {
-        Settings.Secure.putLongForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+        mWriter.write(key, () -> {
+            Settings.Secure.putLongForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+            mCache.invalidate(SettingsCache.NAMESPACE_SECURE, key);
+        });
     }
 
     public void putString(String key, String value) {
-        Settings.Secure.putString(mContentResolver, key, value);
+        mWriter.write(key, () -> {
+            Settings.Secure.putString(mContentResolver, key, value);
+            mCache.invalidate(SettingsCache.NAMESPACE_SECURE, key);
+        });
     }
 }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2026 HertzifyOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hertzify.settings.preferences;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects puts across Settings.System, Settings.Secure and Settings.Global
+ * and applies them back-to-back on a shared worker thread.
+ *
+ * The settings provider has no multi-key transaction for these namespaces,
+ * so writes still land one by one, but they land in a single tight burst off
+ * the main thread, each key is written at most once per batch, and callers
+ * get one aggregated notification once everything is applied.
+ */
+public final class SettingsBatch {
+
+    private static final String TAG = SettingsBatch.class.getSimpleName();
+
+    private static HandlerThread sThread;
+    private static Handler sHandler;
+
+    private final Context mContext;
+    private final ContentResolver mResolver;
+    private final Map<String, Entry> mEntries = new LinkedHashMap<>();
+
+    public interface OnBatchAppliedListener {
+        /** Called on the main thread with the uris of every written key. */
+        public void onBatchApplied(List<Uri> changedUris);
+    }
+
+    public SettingsBatch(Context context) {
+        mContext = context.getApplicationContext();
+        mResolver = mContext.getContentResolver();
+    }
+
+    public SettingsBatch putSystemInt(String key, int value) {
+        return put(SettingsCache.NAMESPACE_SYSTEM, key, Integer.toString(value));
+    }
+
+    public SettingsBatch putSystemString(String key, String value) {
+        return put(SettingsCache.NAMESPACE_SYSTEM, key, value);
+    }
+
+    public SettingsBatch putSecureInt(String key, int value) {
+        return put(SettingsCache.NAMESPACE_SECURE, key, Integer.toString(value));
+    }
+
+    public SettingsBatch putSecureString(String key, String value) {
+        return put(SettingsCache.NAMESPACE_SECURE, key, value);
+    }
+
+    public SettingsBatch putGlobalInt(String key, int value) {
+        return put(SettingsCache.NAMESPACE_GLOBAL, key, Integer.toString(value));
+    }
+
+    public SettingsBatch putGlobalString(String key, String value) {
+        return put(SettingsCache.NAMESPACE_GLOBAL, key, value);
+    }
+
+    public void apply() {
+        apply(null);
+    }
+
+    /**
+     * Hands the collected writes to the worker thread. The batch may be reused
+     * afterwards; it starts out empty again.
+     */
+    public void apply(OnBatchAppliedListener listener) {
+        final List<Entry> entries;
+        synchronized (mEntries) {
+            if (mEntries.isEmpty()) {
+                return;
+            }
+            entries = new ArrayList<>(mEntries.values());
+            mEntries.clear();
+        }
+        getHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                final List<Uri> changed = applyEntries(entries);
+                if (listener != null) {
+                    new Handler(Looper.getMainLooper()).post(new Runnable() {
+                        @Override
+                        public void run() {
+                            listener.onBatchApplied(changed);
+                        }
+                    });
+                }
+            }
+        });
+    }
+
+    private SettingsBatch put(int namespace, String key, String value) {
+        synchronized (mEntries) {
+            // Last value wins, but keep the position of the first put.
+            mEntries.put(namespace + "/" + key, new Entry(namespace, key, value));
+        }
+        return this;
+    }
+
+    private List<Uri> applyEntries(List<Entry> entries) {
+        final SettingsCache cache = SettingsCache.get(mContext);
+        final List<Uri> changed = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            try {
+                switch (entry.namespace) {
+                    case SettingsCache.NAMESPACE_SYSTEM:
+                        Settings.System.putStringForUser(mResolver, entry.key, entry.value,
+                                UserHandle.USER_CURRENT);
+                        changed.add(Settings.System.getUriFor(entry.key));
+                        break;
+                    case SettingsCache.NAMESPACE_SECURE:
+                        Settings.Secure.putStringForUser(mResolver, entry.key, entry.value,
+                                UserHandle.USER_CURRENT);
+                        changed.add(Settings.Secure.getUriFor(entry.key));
+                        break;
+                    case SettingsCache.NAMESPACE_GLOBAL:
+                        Settings.Global.putString(mResolver, entry.key, entry.value);
+                        changed.add(Settings.Global.getUriFor(entry.key));
+                        break;
+                }
+            } catch (IllegalArgumentException | SecurityException e) {
+                Log.e(TAG, "Failed writing " + entry.key, e);
+            }
+            cache.invalidate(entry.namespace, entry.key);
+        }
+        return Collections.unmodifiableList(changed);
+    }
+
+    private static synchronized Handler getHandler() {
+        if (sHandler == null) {
+            sThread = new HandlerThread(TAG);
+            sThread.start();
+            sHandler = new Handler(sThread.getLooper());
+        }
+        return sHandler;
+    }
+
+    private static final class Entry {
+        final int namespace;
+        final String key;
+        final String value;
+
+        Entry(int namespace, String key, String value) {
+            this.namespace = namespace;
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
@@ -0,0 +1,245 @@
+/*
+ * Copyright (C) 2026 HertzifyOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hertzify.settings.preferences;
+
+import android.content.BroadcastReceiver;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.database.ContentObserver;
+import android.net.Uri;
+import android.os.UserHandle;
+import android.provider.Settings;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Process-wide read-through cache for Settings.System, Settings.Secure and
+ * Settings.Global values, keyed by user and namespace.
+ *
+ * Raw string values are cached exactly as the settings provider returns them,
+ * so typed getters parse them the same way the Settings.* helpers do. Entries
+ * are dropped by a single ContentObserver registered for all users on the
+ * three namespace roots, and by the stores themselves after every write.
+ * Values read for USER_CURRENT are dropped when the foreground user switches.
+ *
+ * The cache lives as long as the process, so it only ever holds the
+ * application context's resolver.
+ */
+public final class SettingsCache {
+
+    private static final String TAG = SettingsCache.class.getSimpleName();
+
+    private static final boolean DEBUG = Log.isLoggable(TAG, Log.VERBOSE);
+
+    public static final int NAMESPACE_SYSTEM = 0;
+    public static final int NAMESPACE_SECURE = 1;
+    public static final int NAMESPACE_GLOBAL = 2;
+
+    private static final int NAMESPACE_COUNT = 3;
+
+    private static final Uri[] NAMESPACE_URIS = {
+        Settings.System.CONTENT_URI,
+        Settings.Secure.CONTENT_URI,
+        Settings.Global.CONTENT_URI,
+    };
+
+    /** Marks a key the provider reported as unset. */
+    private static final Object NULL_VALUE = new Object();
+
+    private static SettingsCache sInstance;
+
+    private final ContentResolver mResolver;
+
+    /** Per namespace: user id -> (key -> raw value or NULL_VALUE). */
+    @SuppressWarnings("unchecked")
+    private final SparseArray<Map<String, Object>>[] mValues = new SparseArray[NAMESPACE_COUNT];
+
+    /** Bumped on every invalidation so in-flight misses never store stale data. */
+    private final long[] mGenerations = new long[NAMESPACE_COUNT];
+
+    private final AtomicLong mHits = new AtomicLong();
+    private final AtomicLong mMisses = new AtomicLong();
+
+    private final ContentObserver mObserver = new ContentObserver(null) {
+        @Override
+        public void onChange(boolean selfChange, Uri uri, int userId) {
+            onSettingChanged(uri, userId);
+        }
+    };
+
+    private final BroadcastReceiver mUserSwitchReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (DEBUG) Log.d(TAG, "User switched, dropping USER_CURRENT values");
+            invalidateUser(UserHandle.USER_CURRENT);
+        }
+    };
+
+    private SettingsCache(Context context) {
+        mResolver = context.getContentResolver();
+        for (int i = 0; i < NAMESPACE_COUNT; i++) {
+            mValues[i] = new SparseArray<>();
+            mResolver.registerContentObserver(NAMESPACE_URIS[i], true, mObserver,
+                    UserHandle.USER_ALL);
+        }
+        context.registerReceiver(mUserSwitchReceiver,
+                new IntentFilter(Intent.ACTION_USER_SWITCHED));
+    }
+
+    public static synchronized SettingsCache get(Context context) {
+        if (sInstance == null) {
+            sInstance = new SettingsCache(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Returns the raw value of {@code key} for {@code userId}, hitting the
+     * settings provider only on a cache miss.
+     */
+    public String getString(int namespace, String key, int userId) {
+        final int user = namespace == NAMESPACE_GLOBAL ? UserHandle.USER_SYSTEM : userId;
+        final long generation;
+        synchronized (this) {
+            final Map<String, Object> values = mValues[namespace].get(user);
+            final Object cached = values != null ? values.get(key) : null;
+            if (cached != null) {
+                mHits.incrementAndGet();
+                return cached == NULL_VALUE ? null : (String) cached;
+            }
+            generation = mGenerations[namespace];
+        }
+
+        mMisses.incrementAndGet();
+        final String value = readFromProvider(namespace, key, user);
+
+        synchronized (this) {
+            if (generation == mGenerations[namespace]) {
+                Map<String, Object> values = mValues[namespace].get(user);
+                if (values == null) {
+                    values = new ArrayMap<>();
+                    mValues[namespace].put(user, values);
+                }
+                values.put(key, value == null ? NULL_VALUE : value);
+            }
+        }
+        return value;
+    }
+
+    public int getInt(int namespace, String key, int def, int userId) {
+        final String value = getString(namespace, key, userId);
+        try {
+            return value != null ? Integer.parseInt(value) : def;
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public long getLong(int namespace, String key, long def, int userId) {
+        final String value = getString(namespace, key, userId);
+        try {
+            return value != null ? Long.parseLong(value) : def;
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    public float getFloat(int namespace, String key, float def, int userId) {
+        final String value = getString(namespace, key, userId);
+        try {
+            return value != null ? Float.parseFloat(value) : def;
+        } catch (NumberFormatException e) {
+            return def;
+        }
+    }
+
+    /**
+     * Drops a single key in every user of {@code namespace}. Writers call this
+     * right after a put so reads in the same frame never see the old value.
+     */
+    public synchronized void invalidate(int namespace, String key) {
+        mGenerations[namespace]++;
+        final SparseArray<Map<String, Object>> users = mValues[namespace];
+        for (int i = 0; i < users.size(); i++) {
+            users.valueAt(i).remove(key);
+        }
+    }
+
+    /** Drops every value cached for {@code userId} in all namespaces. */
+    public synchronized void invalidateUser(int userId) {
+        for (int i = 0; i < NAMESPACE_COUNT; i++) {
+            mGenerations[i]++;
+            mValues[i].remove(userId);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for (int i = 0; i < NAMESPACE_COUNT; i++) {
+            mGenerations[i]++;
+            mValues[i].clear();
+        }
+    }
+
+    public long getHitCount() {
+        return mHits.get();
+    }
+
+    public long getMissCount() {
+        return mMisses.get();
+    }
+
+    public void resetStats() {
+        mHits.set(0);
+        mMisses.set(0);
+    }
+
+    private void onSettingChanged(Uri uri, int userId) {
+        if (uri == null) {
+            invalidateAll();
+            return;
+        }
+        final String path = uri.toString();
+        for (int i = 0; i < NAMESPACE_COUNT; i++) {
+            final String root = NAMESPACE_URIS[i].toString() + "/";
+            if (path.startsWith(root)) {
+                if (DEBUG) Log.d(TAG, "onSettingChanged: uri=" + uri + " user=" + userId);
+                // USER_CURRENT reads are cached under their own slot, so a change
+                // for any user conservatively drops the key everywhere.
+                invalidate(i, path.substring(root.length()));
+                return;
+            }
+        }
+    }
+
+    private String readFromProvider(int namespace, String key, int userId) {
+        switch (namespace) {
+            case NAMESPACE_SYSTEM:
+                return Settings.System.getStringForUser(mResolver, key, userId);
+            case NAMESPACE_SECURE:
+                return Settings.Secure.getStringForUser(mResolver, key, userId);
+            case NAMESPACE_GLOBAL:
+                return Settings.Global.getStringForUser(mResolver, key, userId);
+            default:
+                throw new IllegalArgumentException("Unknown namespace " + namespace);
+        }
+    }
+}
@@ -20,14 +20,17 @@ import android.content.Context;
 import android.database.ContentObserver;
 import android.net.Uri;
 import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Message;
 import android.provider.Settings;
 import android.util.ArrayMap;
 import android.util.ArraySet;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
 
 public class SettingsHelper {
 
@@ -40,6 +43,14 @@ public class SettingsHelper {
     private final Context mContext;
     private final Observatory mObservatory;
 
+    private final Map<OnSettingsChangeListener, BackgroundDelivery> mBackgroundDeliveries =
+            new ArrayMap<>();
+    private final AtomicLong mCoalescedCount = new AtomicLong();
+    private final AtomicLong mCancelledCount = new AtomicLong();
+    private HandlerThread mDeliveryThread;
+    // Observes the Uris of background listeners on mDeliveryThread
+    private Observatory mBackgroundObservatory;
+
     private SettingsHelper(Context context) {
         mContext = context;
         mObservatory = new Observatory(context, new Handler());
@@ -119,21 +130,136 @@ public class SettingsHelper {
         mObservatory.register(listener, settingsUris);
     }
 
+    /**
+     * Like {@link #startWatching(OnSettingsChangeListener, Uri...)}, but delivers
+     * changes on a shared background thread. Repeated notifications for the
+     * same Uri arriving within {@code coalesceWindowMs} collapse into one; calling
+     * this again for the same listener replaces its window.
+     */
+    public void startWatching(OnSettingsChangeListener listener, long coalesceWindowMs,
+            Uri... settingsUris) {
+        BackgroundDelivery delivery;
+        final Observatory observatory;
+        synchronized (mBackgroundDeliveries) {
+            if (mDeliveryThread == null) {
+                mDeliveryThread = new HandlerThread("SettingsHelper");
+                mDeliveryThread.start();
+                mBackgroundObservatory = new Observatory(mContext,
+                        new Handler(mDeliveryThread.getLooper()));
+            }
+            observatory = mBackgroundObservatory;
+            delivery = mBackgroundDeliveries.get(listener);
+            if (delivery == null) {
+                delivery = new BackgroundDelivery(listener, mDeliveryThread.getLooper(),
+                        coalesceWindowMs);
+                mBackgroundDeliveries.put(listener, delivery);
+            } else {
+                delivery.setWindow(coalesceWindowMs);
+            }
+        }
+        observatory.register(delivery, settingsUris);
+    }
+
     public void stopWatching(OnSettingsChangeListener listener) {
-        mObservatory.unregister(listener);
+        final BackgroundDelivery delivery;
+        final Observatory observatory;
+        synchronized (mBackgroundDeliveries) {
+            delivery = mBackgroundDeliveries.remove(listener);
+            observatory = mBackgroundObservatory;
+        }
+        if (delivery != null) {
+            observatory.unregister(delivery);
+            delivery.cancel();
+        } else {
+            mObservatory.unregister(listener);
+        }
+    }
+
+    /** Number of background notifications folded into an already pending one. */
+    public long getCoalescedCount() {
+        return mCoalescedCount.get();
+    }
+
+    /** Number of pending background notifications cancelled by stopWatching. */
+    public long getCancelledCount() {
+        return mCancelledCount.get();
     }
 
     public interface OnSettingsChangeListener {
         public void onSettingsChanged(Uri settingsUri);
     }
 
+    /**
+     * Forwards notifications to a listener on a background looper, holding
+     * each Uri for the coalescing window so bursts collapse into one call.
+     */
+    private class BackgroundDelivery implements OnSettingsChangeListener, Handler.Callback {
+
+        private static final int MSG_DELIVER = 1;
+
+        private final OnSettingsChangeListener mListener;
+        private final Handler mHandler;
+        private volatile long mWindowMs;
+        private final Set<Uri> mPending = new ArraySet<>();
+
+        BackgroundDelivery(OnSettingsChangeListener listener, Looper looper, long windowMs) {
+            mListener = listener;
+            mHandler = new Handler(looper, this);
+            setWindow(windowMs);
+        }
+
+        /** Applies to notifications arriving from now on. */
+        void setWindow(long windowMs) {
+            mWindowMs = Math.max(0, windowMs);
+        }
+
+        @Override
+        public void onSettingsChanged(Uri settingsUri) {
+            synchronized (mPending) {
+                if (!mPending.add(settingsUri)) {
+                    mCoalescedCount.incrementAndGet();
+                    return;
+                }
+            }
+            mHandler.sendMessageDelayed(mHandler.obtainMessage(MSG_DELIVER, settingsUri), mWindowMs);
+        }
+
+        @Override
+        public boolean handleMessage(Message msg) {
+            final Uri uri = (Uri) msg.obj;
+            synchronized (mPending) {
+                if (!mPending.remove(uri)) {
+                    return true;
+                }
+            }
+            mListener.onSettingsChanged(uri);
+            return true;
+        }
+
+        void cancel() {
+            mHandler.removeMessages(MSG_DELIVER);
+            synchronized (mPending) {
+                mCancelledCount.addAndGet(mPending.size());
+                mPending.clear();
+            }
+        }
+    }
+
     /**
      * A scalable ContentObserver that aggregates all listeners thru a single entrypoint.
+     *
+     * Listeners are indexed by Uri, so a change notification only touches the
+     * listeners of that Uri. The per-Uri arrays are copy-on-write: mutations
+     * allocate, dispatch does not, and listeners may (un)register from their
+     * own callbacks.
      */
     private static class Observatory extends ContentObserver {
 
+        private static final OnSettingsChangeListener[] EMPTY = new OnSettingsChangeListener[0];
+
+        private final Map<Uri, OnSettingsChangeListener[]> mListeners = new ArrayMap<>();
         private final Map<OnSettingsChangeListener, Set<Uri>> mTriggers = new ArrayMap<>();
-        private final List<Uri> mRefs = new ArrayList<>();
+        private final Set<Uri> mObserved = new ArraySet<>();
 
         private final Context mContext;
         private final ContentResolver mResolver;
@@ -145,52 +271,89 @@ public class SettingsHelper {
         }
 
         public void register(OnSettingsChangeListener listener, Uri... contentUris) {
-            synchronized (mRefs) {
+            // Initial notifications are sent once the lock is released, so the
+            // listener may call back into the observatory
+            int initialNotifications = 0;
+            synchronized (mListeners) {
                 Set<Uri> uris = mTriggers.get(listener);
                 if (uris == null) {
                     uris = new ArraySet<Uri>();
                     mTriggers.put(listener, uris);
                 }
                 for (Uri contentUri : contentUris) {
-                    uris.add(contentUri);
-                    if (!mRefs.contains(contentUri)) {
-                        mResolver.registerContentObserver(contentUri, false, this);
-                        listener.onSettingsChanged(null);
+                    if (!uris.add(contentUri)) {
+                        continue;
+                    }
+                    final OnSettingsChangeListener[] current = mListeners.get(contentUri);
+                    if (current == null) {
+                        if (mObserved.add(contentUri)) {
+                            mResolver.registerContentObserver(contentUri, false, this);
+                        }
+                        initialNotifications++;
+                        mListeners.put(contentUri, new OnSettingsChangeListener[] { listener });
+                    } else {
+                        final OnSettingsChangeListener[] updated =
+                                Arrays.copyOf(current, current.length + 1);
+                        updated[current.length] = listener;
+                        mListeners.put(contentUri, updated);
                     }
-                    mRefs.add(contentUri);
                 }
             }
+            for (int i = 0; i < initialNotifications; i++) {
+                listener.onSettingsChanged(null);
+            }
         }
 
         public void unregister(OnSettingsChangeListener listener) {
-            synchronized (mRefs) {
+            synchronized (mListeners) {
                 Set<Uri> uris = mTriggers.remove(listener);
                 if (uris != null) {
                     for (Uri uri : uris) {
-                        mRefs.remove(uri);
+                        removeListener(uri, listener);
                     }
                 }
-                if (mRefs.size() == 0) {
+                if (mListeners.isEmpty() && !mObserved.isEmpty()) {
                     mResolver.unregisterContentObserver(this);
+                    mObserved.clear();
                 }
             }
         }
 
+        private void removeListener(Uri uri, OnSettingsChangeListener listener) {
+            final OnSettingsChangeListener[] current = mListeners.get(uri);
+            if (current == null) {
+                return;
+            }
+            int index = -1;
+            for (int i = 0; i < current.length; i++) {
+                if (current[i] == listener) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return;
+            }
+            if (current.length == 1) {
+                mListeners.remove(uri);
+                return;
+            }
+            final OnSettingsChangeListener[] updated = new OnSettingsChangeListener[current.length - 1];
+            System.arraycopy(current, 0, updated, 0, index);
+            System.arraycopy(current, index + 1, updated, index, current.length - index - 1);
+            mListeners.put(uri, updated);
+        }
+
         @Override
         public void onChange(boolean selfChange, Uri uri) {
-            synchronized (mRefs) {
-                super.onChange(selfChange, uri);
-
-                final Set<OnSettingsChangeListener> notify = new ArraySet<>();
-                for (Map.Entry<OnSettingsChangeListener, Set<Uri>> entry : mTriggers.entrySet()) {
-                    if (entry.getValue().contains(uri)) {
-                        notify.add(entry.getKey());
-                    }
-                }
+            super.onChange(selfChange, uri);
 
-                for (OnSettingsChangeListener listener : notify) {
-                    listener.onSettingsChanged(uri);
-                }
+            final OnSettingsChangeListener[] notify;
+            synchronized (mListeners) {
+                notify = mListeners.getOrDefault(uri, EMPTY);
+            }
+            for (OnSettingsChangeListener listener : notify) {
+                listener.onSettingsChanged(uri);
             }
         }
     }
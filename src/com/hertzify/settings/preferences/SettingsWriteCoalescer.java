@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2026 HertzifyOS
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.hertzify.settings.preferences;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Holds pending settings writes per key and runs only the latest one, either
+ * when the deadline started by the first pending write expires or on flush().
+ */
+public final class SettingsWriteCoalescer {
+
+    private static final long FLUSH_DELAY_MS = 150;
+
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Map<String, Runnable> mPending = new ArrayMap<>();
+
+    private boolean mEnabled;
+
+    private final Runnable mFlushRunnable = new Runnable() {
+        @Override
+        public void run() {
+            flush();
+        }
+    };
+
+    public void setEnabled(boolean enabled) {
+        synchronized (this) {
+            mEnabled = enabled;
+        }
+        if (!enabled) {
+            flush();
+        }
+    }
+
+    /**
+     * Runs {@code write} right away when coalescing is off, otherwise replaces
+     * any write still pending for {@code key}.
+     */
+    public void write(String key, Runnable write) {
+        synchronized (this) {
+            if (mEnabled) {
+                if (mPending.isEmpty()) {
+                    mHandler.postDelayed(mFlushRunnable, FLUSH_DELAY_MS);
+                }
+                mPending.put(key, write);
+                return;
+            }
+        }
+        write.run();
+    }
+
+    /** Runs the pending write for {@code key}, if any, so a read sees it. */
+    public void flush(String key) {
+        final Runnable write;
+        synchronized (this) {
+            write = mPending.remove(key);
+            if (mPending.isEmpty()) {
+                mHandler.removeCallbacks(mFlushRunnable);
+            }
+        }
+        if (write != null) {
+            write.run();
+        }
+    }
+
+    public void flush() {
+        final List<Runnable> writes;
+        synchronized (this) {
+            mHandler.removeCallbacks(mFlushRunnable);
+            if (mPending.isEmpty()) {
+                return;
+            }
+            writes = new ArrayList<>(mPending.values());
+            mPending.clear();
+        }
+        for (Runnable write : writes) {
+            write.run();
+        }
+    }
+}
@@ -22,11 +22,11 @@ public class SystemSettingSeekBarPreference extends CustomSeekBarPreference {
 
     public SystemSettingSeekBarPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
-        setPreferenceDataStore(new SystemSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SystemSettingsStore(context));
     }
 
     public SystemSettingSeekBarPreference(Context context) {
         super(context, null);
-        setPreferenceDataStore(new SystemSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SystemSettingsStore(context));
     }
 }
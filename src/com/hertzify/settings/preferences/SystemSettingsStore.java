@@ -17,37 +17,57 @@
 package com.hertzify.settings.preferences;
 
 import android.content.ContentResolver;
+import android.content.Context;
 import android.preference.PreferenceDataStore;
 import android.os.UserHandle;
 import android.provider.Settings;
 
 public class SystemSettingsStore extends androidx.preference.PreferenceDataStore
-        implements PreferenceDataStore {
+        implements PreferenceDataStore, CoalescingDataStore {
 
     private ContentResolver mContentResolver;
+    private SettingsCache mCache;
+    private final SettingsWriteCoalescer mWriter = new SettingsWriteCoalescer();
 
-    public SystemSettingsStore(ContentResolver contentResolver) {
-        mContentResolver = contentResolver;
+    public SystemSettingsStore(Context context) {
+        mContentResolver = context.getContentResolver();
+        mCache = SettingsCache.get(context);
+    }
+
+    @Override
+    public void setCoalescingEnabled(boolean enabled) {
+        mWriter.setEnabled(enabled);
+    }
+
+    @Override
+    public void flush() {
+        mWriter.flush();
     }
 
     public boolean getBoolean(String key, boolean defValue) {
-        return Settings.System.getIntForUser(mContentResolver, key, defValue ? 1 : 0, UserHandle.USER_CURRENT) != 0;
+        mWriter.flush(key);
+        return mCache.getInt(SettingsCache.NAMESPACE_SYSTEM, key, defValue ? 1 : 0,
+                UserHandle.USER_CURRENT) != 0;
     }
 
     public float getFloat(String key, float defValue) {
-        return Settings.System.getFloatForUser(mContentResolver, key, defValue, UserHandle.USER_CURRENT);
+        mWriter.flush(key);
+        return mCache.getFloat(SettingsCache.NAMESPACE_SYSTEM, key, defValue, UserHandle.USER_CURRENT);
     }
 
     public int getInt(String key, int defValue) {
-        return Settings.System.getIntForUser(mContentResolver, key, defValue, UserHandle.USER_CURRENT);
+        mWriter.flush(key);
+        return mCache.getInt(SettingsCache.NAMESPACE_SYSTEM, key, defValue, UserHandle.USER_CURRENT);
     }
 
     public long getLong(String key, long defValue) {
-        return Settings.System.getLongForUser(mContentResolver, key, defValue, UserHandle.USER_CURRENT);
+        mWriter.flush(key);
+        return mCache.getLong(SettingsCache.NAMESPACE_SYSTEM, key, defValue, UserHandle.USER_CURRENT);
     }
 
     public String getString(String key, String defValue) {
-        String result = Settings.System.getString(mContentResolver, key);
+        mWriter.flush(key);
+        String result = mCache.getString(SettingsCache.NAMESPACE_SYSTEM, key, UserHandle.myUserId());
         return result == null ? defValue : result;
     }
 
@@ -56,18 +76,30 @@ public class SystemSettingsStore extends androidx.preference.PreferenceDataStore
     }
 
     public void putFloat(String key, float value) {
-        Settings.System.putFloatForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+        mWriter.write(key, () -> {
+            Settings.System.putFloatForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+            mCache.invalidate(SettingsCache.NAMESPACE_SYSTEM, key);
+        });
     }
 
     public void putInt(String key, int value) {
-        Settings.System.putIntForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+        mWriter.write(key, () -> {
+            Settings.System.putIntForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+            mCache.invalidate(SettingsCache.NAMESPACE_SYSTEM, key);
+        });
     }
 
     public void putLong(String key, long value) {
-        Settings.System.putLongForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+        mWriter.write(key, () -> {
+            Settings.System.putLongForUser(mContentResolver, key, value, UserHandle.USER_CURRENT);
+            mCache.invalidate(SettingsCache.NAMESPACE_SYSTEM, key);
+        });
     }
 
     public void putString(String key, String value) {
-        Settings.System.putString(mContentResolver, key, value);
+        mWriter.write(key, () -> {
+            Settings.System.putString(mContentResolver, key, value);
+            mCache.invalidate(SettingsCache.NAMESPACE_SYSTEM, key);
+        });
     }
 }
@@ -18,11 +18,15 @@ package com.hertzify.settings.preferences.colorpicker;
 
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.Config;
+import android.graphics.BitmapShader;
 import android.graphics.Canvas;
 import android.graphics.ColorFilter;
+import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
+import android.graphics.Shader.TileMode;
 import android.graphics.drawable.Drawable;
+import android.util.SparseArray;
 
 /**
  * This drawable that draws a simple white and gray chessboard pattern.
@@ -32,30 +36,33 @@ import android.graphics.drawable.Drawable;
  */
 public class AlphaPatternDrawable extends Drawable {
 
+    /**
+     * Tiles of 2x2 cells shared by all instances, keyed by
+     * cell size in pixels, which already includes the density.
+     */
+    private static final SparseArray<Bitmap> sTiles = new SparseArray<>();
+
     private int mRectangleSize = 10;
 
     private Paint mPaint = new Paint();
-    private Paint mPaintWhite = new Paint();
-    private Paint mPaintGray = new Paint();
-
-    private int numRectanglesHorizontal;
-    private int numRectanglesVertical;
 
     /**
-     * Bitmap in which the pattern will be cahched.
+     * Repeats the shared tile, anchored at the top left
+     * corner of the bounds.
      */
-    private Bitmap        mBitmap;
+    private final BitmapShader mShader;
+    private final Matrix mShaderMatrix = new Matrix();
 
     public AlphaPatternDrawable(int rectangleSize) {
-        mRectangleSize = rectangleSize;
-        mPaintWhite.setColor(0xffffffff);
-        mPaintGray.setColor(0xffcbcbcb);
+        mRectangleSize = Math.max(1, rectangleSize);
+        mShader = new BitmapShader(getTile(mRectangleSize), TileMode.REPEAT, TileMode.REPEAT);
+        mPaint.setShader(mShader);
     }
 
     @Override
     public void draw(Canvas canvas) {
-        if (mBitmap != null) {
-            canvas.drawBitmap(mBitmap, null, getBounds(), mPaint);
+        if (!getBounds().isEmpty()) {
+            canvas.drawRect(getBounds(), mPaint);
         }
     }
 
@@ -78,51 +85,37 @@ public class AlphaPatternDrawable extends Drawable {
     protected void onBoundsChange(Rect bounds) {
         super.onBoundsChange(bounds);
 
-        int height = bounds.height();
-        int width = bounds.width();
-
-        numRectanglesHorizontal = (int) Math.ceil((width / mRectangleSize));
-        numRectanglesVertical = (int) Math.ceil(height / mRectangleSize);
-
-        generatePatternBitmap();
+        mShaderMatrix.setTranslate(bounds.left, bounds.top);
+        mShader.setLocalMatrix(mShaderMatrix);
 
     }
 
     /**
-     * This will generate a bitmap with the pattern
-     * as big as the rectangle we were allow to draw on.
-     * We do this to chache the bitmap so we don't need to
-     * recreate it each time draw() is called since it
-     * takes a few milliseconds.
+     * Returns the tile for the given cell size, generating it
+     * the first time it is asked for. A white cell comes first,
+     * repeating the tile gives the whole chessboard, so memory
+     * does not grow with the drawn area or the instance count.
      */
-    private void generatePatternBitmap(){
-
-        if(getBounds().width() <= 0 || getBounds().height() <= 0){
-            return;
-        }
-
-        mBitmap = Bitmap.createBitmap(getBounds().width(), getBounds().height(), Config.ARGB_8888);
-        Canvas canvas = new Canvas(mBitmap);
-
-        Rect r = new Rect();
-        boolean verticalStartWhite = true;
-        for (int i = 0; i <= numRectanglesVertical; i++) {
-
-            boolean isWhite = verticalStartWhite;
-            for (int j = 0; j <= numRectanglesHorizontal; j++) {
+    private static Bitmap getTile(int rectangleSize){
 
-                r.top = i * mRectangleSize;
-                r.left = j * mRectangleSize;
-                r.bottom = r.top + mRectangleSize;
-                r.right = r.left + mRectangleSize;
-
-                canvas.drawRect(r, isWhite ? mPaintWhite : mPaintGray);
-
-                isWhite = !isWhite;
+        synchronized (sTiles) {
+            Bitmap tile = sTiles.get(rectangleSize);
+            if (tile != null) {
+                return tile;
             }
 
-            verticalStartWhite = !verticalStartWhite;
+            tile = Bitmap.createBitmap(rectangleSize * 2, rectangleSize * 2, Config.ARGB_8888);
+            tile.eraseColor(0xffcbcbcb);
+
+            Canvas canvas = new Canvas(tile);
+            Paint white = new Paint();
+            white.setColor(0xffffffff);
+            canvas.drawRect(0, 0, rectangleSize, rectangleSize, white);
+            canvas.drawRect(rectangleSize, rectangleSize,
+                    rectangleSize * 2, rectangleSize * 2, white);
 
+            sTiles.put(rectangleSize, tile);
+            return tile;
         }
 
     }
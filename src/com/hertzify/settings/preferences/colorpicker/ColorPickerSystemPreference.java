@@ -27,16 +27,16 @@ public class ColorPickerSystemPreference extends ColorPickerPreference {
 
     public ColorPickerSystemPreference(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
-        setPreferenceDataStore(new SystemSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SystemSettingsStore(context));
     }
 
     public ColorPickerSystemPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
-        setPreferenceDataStore(new SystemSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SystemSettingsStore(context));
     }
 
     public ColorPickerSystemPreference(Context context) {
         super(context, null);
-        setPreferenceDataStore(new SystemSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SystemSettingsStore(context));
     }
 }
@@ -18,6 +18,7 @@
 package com.hertzify.settings.preferences.colorpicker;
 
 import android.content.Context;
+import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.ComposeShader;
@@ -77,6 +78,12 @@ public class ColorPickerView extends View {
     private float        RECTANGLE_TRACKER_OFFSET = 2f;
 
 
+    /**
+     * Fully saturated colors for every whole hue, from 360 down to 0,
+     * as the hue panel draws them from top to bottom.
+     */
+    private final static int[]    HUE_COLORS = buildHueColorArray();
+
     private float         mDensity = 1f;
 
     private OnColorChangedListener    mListener;
@@ -97,6 +104,28 @@ public class ColorPickerView extends View {
     private Shader        mHueShader;
     private Shader        mAlphaShader;
 
+    /*
+     * The sat/val panel is rendered once per hue into
+     * this bitmap, frames in between only blit it.
+     */
+    private Bitmap        mSatValBitmap;
+    private Canvas        mSatValCanvas;
+    private float        mSatValBitmapHue = Float.NaN;
+
+    /*
+     * What the alpha shader was built for, so onDraw
+     * only rebuilds it when the color changes.
+     */
+    private int            mAlphaShaderColor;
+
+    /*
+     * Scratch objects reused by onDraw, so drawing
+     * does not allocate.
+     */
+    private final float[]    mHsv = new float[3];
+    private final Point    mTrackerPoint = new Point();
+    private final RectF    mTrackerRect = new RectF();
+
     private int            mAlpha = 0xff;
     private float        mHue = 360f;
     private float         mSat = 0f;
@@ -206,13 +235,25 @@ public class ColorPickerView extends View {
         return offset * 1.5f;
     }
 
-    private int[] buildHueColorArray(){
+    private static int[] buildHueColorArray(){
 
         int[] hue = new int[361];
 
         int count = 0;
         for(int i = hue.length -1; i >= 0; i--, count++){
-            hue[count] = Color.HSVToColor(new float[]{i, 1f, 1f});
+            // HSV to RGB with full saturation and value
+            float h = (i % 360) / 60f;
+            int sector = (int) h;
+            int rising = Math.round((h - sector) * 0xff);
+            int falling = 0xff - rising;
+            switch (sector) {
+                case 0: hue[count] = Color.rgb(0xff, rising, 0); break;
+                case 1: hue[count] = Color.rgb(falling, 0xff, 0); break;
+                case 2: hue[count] = Color.rgb(0, 0xff, rising); break;
+                case 3: hue[count] = Color.rgb(0, falling, 0xff); break;
+                case 4: hue[count] = Color.rgb(rising, 0, 0xff); break;
+                default: hue[count] = Color.rgb(0xff, 0, falling); break;
+            }
         }
 
         return hue;
@@ -241,20 +282,11 @@ public class ColorPickerView extends View {
                 rect.bottom + BORDER_WIDTH_PX, mBorderPaint);
         }
 
-        if (mValShader == null) {
-            mValShader = new LinearGradient(rect.left, rect.top, rect.left, rect.bottom,
-                    0xffffffff, 0xff000000, TileMode.CLAMP);
+        if (mSatValBitmap == null || mSatValBitmapHue != mHue) {
+            renderSatValBitmap();
         }
 
-        int rgb = Color.HSVToColor(new float[]{mHue,1f,1f});
-
-        mSatShader = new LinearGradient(rect.left, rect.top, rect.right, rect.top,
-                0xffffffff, rgb, TileMode.CLAMP);
-        ComposeShader mShader = new ComposeShader(
-            mValShader, mSatShader, PorterDuff.Mode.MULTIPLY);
-        mSatValPaint.setShader(mShader);
-
-        canvas.drawRect(rect, mSatValPaint);
+        canvas.drawBitmap(mSatValBitmap, null, rect, null);
 
         Point p = satValToPoint(mSat, mVal);
 
@@ -267,6 +299,39 @@ public class ColorPickerView extends View {
 
     }
 
+    /**
+     * Renders the sat/val square for the current hue into
+     * mSatValBitmap, allocating it only when the size changed.
+     */
+    private void renderSatValBitmap(){
+
+        final RectF rect = mSatValRect;
+        final int width = Math.max(1, Math.round(rect.width()));
+        final int height = Math.max(1, Math.round(rect.height()));
+
+        if (mSatValBitmap == null || mSatValBitmap.getWidth() != width
+                || mSatValBitmap.getHeight() != height) {
+            mSatValBitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+            mSatValCanvas = new Canvas(mSatValBitmap);
+            mValShader = new LinearGradient(0, 0, 0, height,
+                    0xffffffff, 0xff000000, TileMode.CLAMP);
+        }
+
+        mHsv[0] = mHue;
+        mHsv[1] = 1f;
+        mHsv[2] = 1f;
+        int rgb = Color.HSVToColor(mHsv);
+
+        mSatShader = new LinearGradient(0, 0, width, 0,
+                0xffffffff, rgb, TileMode.CLAMP);
+        mSatValPaint.setShader(new ComposeShader(
+            mValShader, mSatShader, PorterDuff.Mode.MULTIPLY));
+        mSatValCanvas.drawRect(0, 0, width, height, mSatValPaint);
+        mSatValPaint.setShader(null);
+
+        mSatValBitmapHue = mHue;
+    }
+
     private void drawHuePanel(Canvas canvas){
 
         final RectF rect = mHueRect;
@@ -283,7 +348,7 @@ public class ColorPickerView extends View {
         if (mHueShader == null) {
             mHueShader = new LinearGradient(
                 rect.left, rect.top, rect.left, rect.bottom,
-                buildHueColorArray(), null, TileMode.CLAMP);
+                HUE_COLORS, null, TileMode.CLAMP);
             mHuePaint.setShader(mHueShader);
         }
 
@@ -293,7 +358,7 @@ public class ColorPickerView extends View {
 
         Point p = hueToPoint(mHue);
 
-        RectF r = new RectF();
+        RectF r = mTrackerRect;
         r.left = rect.left - RECTANGLE_TRACKER_OFFSET;
         r.right = rect.right + RECTANGLE_TRACKER_OFFSET;
         r.top = p.y - rectHeight;
@@ -322,15 +387,19 @@ public class ColorPickerView extends View {
 
         mAlphaPattern.draw(canvas);
 
-        float[] hsv = new float[]{mHue,mSat,mVal};
-        int color = Color.HSVToColor(hsv);
-        int acolor = Color.HSVToColor(0, hsv);
-
-        mAlphaShader = new LinearGradient(rect.left, rect.top, rect.right, rect.top,
-                color, acolor, TileMode.CLAMP);
+        mHsv[0] = mHue;
+        mHsv[1] = mSat;
+        mHsv[2] = mVal;
+        int color = Color.HSVToColor(mHsv);
 
+        if (mAlphaShader == null || mAlphaShaderColor != color) {
+            int acolor = color & 0x00ffffff;
 
-        mAlphaPaint.setShader(mAlphaShader);
+            mAlphaShader = new LinearGradient(rect.left, rect.top, rect.right, rect.top,
+                    color, acolor, TileMode.CLAMP);
+            mAlphaPaint.setShader(mAlphaShader);
+            mAlphaShaderColor = color;
+        }
 
         canvas.drawRect(rect, mAlphaPaint);
 
@@ -343,7 +412,7 @@ public class ColorPickerView extends View {
 
         Point p = alphaToPoint(mAlpha);
 
-        RectF r = new RectF();
+        RectF r = mTrackerRect;
         r.left = p.x - rectWidth;
         r.right = p.x + rectWidth;
         r.top = rect.top - RECTANGLE_TRACKER_OFFSET;
@@ -354,12 +423,16 @@ public class ColorPickerView extends View {
     }
 
 
+    /*
+     * The point helpers below return the shared mTrackerPoint,
+     * use the result before calling another one.
+     */
     private Point hueToPoint(float hue){
 
         final RectF rect = mHueRect;
         final float height = rect.height();
 
-        Point p = new Point();
+        Point p = mTrackerPoint;
 
         p.y = (int) (height - (hue * height / 360f) + rect.top);
         p.x = (int) rect.left;
@@ -373,7 +446,7 @@ public class ColorPickerView extends View {
         final float height = rect.height();
         final float width = rect.width();
 
-        Point p = new Point();
+        Point p = mTrackerPoint;
 
         p.x = (int) (sat * width + rect.left);
         p.y = (int) ((1f - val) * height + rect.top);
@@ -386,7 +459,7 @@ public class ColorPickerView extends View {
         final RectF rect = mAlphaRect;
         final float width = rect.width();
 
-        Point p = new Point();
+        Point p = mTrackerPoint;
 
         p.x = (int) (width - (alpha * width / 0xff) + rect.left);
         p.y = (int) rect.top;
@@ -756,6 +829,11 @@ public class ColorPickerView extends View {
         setUpSatValRect();
         setUpHueRect();
         setUpAlphaRect();
+
+        // The shaders and the sat/val bitmap are laid out for the old rects
+        mSatValBitmap = null;
+        mHueShader = null;
+        mAlphaShader = null;
     }
 
     private void setUpSatValRect(){
@@ -908,10 +986,9 @@ public class ColorPickerView extends View {
              * Otherwise they will not look right after
              * the size of the view has changed.
              */
-            mValShader = null;
-            mSatShader = null;
+            mSatValBitmap = null;
             mHueShader = null;
-            mAlphaShader = null;;
+            mAlphaShader = null;
 
             requestLayout();
         }
@@ -27,16 +27,16 @@ public class SecureSettingColorPickerPreference extends ColorPickerPreference {
 
     public SecureSettingColorPickerPreference(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
-        setPreferenceDataStore(new SecureSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SecureSettingsStore(context));
     }
 
     public SecureSettingColorPickerPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
-        setPreferenceDataStore(new SecureSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SecureSettingsStore(context));
     }
 
     public SecureSettingColorPickerPreference(Context context) {
         super(context, null);
-        setPreferenceDataStore(new SecureSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SecureSettingsStore(context));
     }
 }
@@ -27,16 +27,16 @@ public class SystemSettingColorPickerPreference extends ColorPickerPreference {
 
     public SystemSettingColorPickerPreference(Context context, AttributeSet attrs, int defStyle) {
         super(context, attrs, defStyle);
-        setPreferenceDataStore(new SystemSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SystemSettingsStore(context));
     }
 
     public SystemSettingColorPickerPreference(Context context, AttributeSet attrs) {
         super(context, attrs);
-        setPreferenceDataStore(new SystemSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SystemSettingsStore(context));
     }
 
     public SystemSettingColorPickerPreference(Context context) {
         super(context, null);
-        setPreferenceDataStore(new SystemSettingsStore(context.getContentResolver()));
+        setPreferenceDataStore(new SystemSettingsStore(context));
     }
 }
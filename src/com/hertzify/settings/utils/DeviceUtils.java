@@ -9,8 +9,6 @@ import android.app.Activity;
 import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.pm.ActivityInfo;
-import android.content.pm.PackageInfo;
-import android.content.pm.PackageManager;
 import android.content.res.Configuration;
 import android.graphics.Point;
 import android.graphics.Rect;
@@ -20,6 +18,7 @@ import android.hardware.camera2.CameraManager;
 import android.nfc.NfcAdapter;
 import android.os.Build;
 import android.os.SystemProperties;
+import android.os.UserHandle;
 import android.telephony.TelephonyManager;
 import android.telephony.SubscriptionManager;
 import android.text.TextUtils;
@@ -31,6 +30,8 @@ import android.view.Surface;
 
 import androidx.annotation.NonNull;
 
+import com.hertzify.settings.preferences.PackageSnapshot;
+
 public class DeviceUtils {
 
     /* returns whether the device has a centered display cutout or not. */
@@ -70,15 +71,8 @@ public class DeviceUtils {
 
     public static boolean isPackageInstalled(Context context, String pkg, boolean ignoreState) {
         if (pkg != null) {
-            try {
-                PackageInfo pi = context.getPackageManager().getPackageInfo(pkg,
-                        PackageManager.PackageInfoFlags.of(0));
-                if (!pi.applicationInfo.enabled && !ignoreState) {
-                    return false;
-                }
-            } catch (PackageManager.NameNotFoundException e) {
-                return false;
-            }
+            return PackageSnapshot.get(context).isPackageInstalled(pkg,
+                    UserHandle.myUserId(), ignoreState);
         }
 
         return true;